@@ -28,7 +28,22 @@ import org.apache.hadoop.security.UserGroupInformation;
  * Communicate with the JobTracker as a specific user.
  */
 public class TempletonJobTracker {
+    /**
+     * Told about every call made to the Job Tracker.
+     */
+    public interface CallListener {
+        /**
+         * A call finished.
+         *
+         * @param tracker The tracker the call was made on
+         * @param nanos   How long the call took
+         * @param error   The error the call threw, or null
+         */
+        void called(TempletonJobTracker tracker, long nanos, IOException error);
+    }
+
     private JobSubmissionProtocol cnx;
+    private CallListener listener;
 
     /**
      * Create a connection to the Job Tracker.
@@ -38,6 +53,20 @@ public class TempletonJobTracker {
                                Configuration conf)
         throws IOException
     {
+        this(ugi, addr, conf, null);
+    }
+
+    /**
+     * Create a connection to the Job Tracker that reports each call
+     * to the listener.
+     */
+    public TempletonJobTracker(UserGroupInformation ugi,
+                               InetSocketAddress addr,
+                               Configuration conf,
+                               CallListener listener)
+        throws IOException
+    {
+        this.listener = listener;
         cnx = (JobSubmissionProtocol)
             RPC.getProxy(JobSubmissionProtocol.class,
                          JobSubmissionProtocol.versionID,
@@ -56,7 +85,15 @@ public class TempletonJobTracker {
     public JobProfile getJobProfile(JobID jobid)
         throws IOException
     {
-        return cnx.getJobProfile(jobid);
+        long start = System.nanoTime();
+        try {
+            JobProfile res = cnx.getJobProfile(jobid);
+            called(start, null);
+            return res;
+        } catch (IOException e) {
+            called(start, e);
+            throw e;
+        }
     }
 
     /**
@@ -67,7 +104,15 @@ public class TempletonJobTracker {
     public JobStatus getJobStatus(JobID jobid)
         throws IOException
     {
-        return cnx.getJobStatus(jobid);
+        long start = System.nanoTime();
+        try {
+            JobStatus res = cnx.getJobStatus(jobid);
+            called(start, null);
+            return res;
+        } catch (IOException e) {
+            called(start, e);
+            throw e;
+        }
     }
 
 
@@ -77,7 +122,14 @@ public class TempletonJobTracker {
     public void killJob(JobID jobid)
         throws IOException
     {
-        cnx.killJob(jobid);
+        long start = System.nanoTime();
+        try {
+            cnx.killJob(jobid);
+            called(start, null);
+        } catch (IOException e) {
+            called(start, e);
+            throw e;
+        }
     }
 
     /**
@@ -86,7 +138,15 @@ public class TempletonJobTracker {
     public JobStatus[] getAllJobs()
         throws IOException
     {
-        return cnx.getAllJobs();
+        long start = System.nanoTime();
+        try {
+            JobStatus[] res = cnx.getAllJobs();
+            called(start, null);
+            return res;
+        } catch (IOException e) {
+            called(start, e);
+            throw e;
+        }
     }
 
     /**
@@ -95,4 +155,9 @@ public class TempletonJobTracker {
     public void close() {
         RPC.stopProxy(cnx);
     }
+
+    private void called(long start, IOException error) {
+        if (listener != null)
+            listener.called(this, System.nanoTime() - start, error);
+    }
 }
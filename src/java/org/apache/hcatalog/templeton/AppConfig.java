@@ -80,10 +80,13 @@ public class AppConfig extends Configuration {
     public static final String EXEC_ENVS_NAME      = "templeton.exec.envs";
     public static final String EXEC_MAX_BYTES_NAME = "templeton.exec.max-output-bytes";
     public static final String EXEC_MAX_PROCS_NAME = "templeton.exec.max-procs";
+    public static final String EXEC_MAX_QUEUED_NAME = "templeton.exec.max-queued";
+    public static final String EXEC_MAX_WAIT_NAME  = "templeton.exec.max-wait-ms";
     public static final String EXEC_TIMEOUT_NAME   = "templeton.exec.timeout";
     public static final String HADOOP_NAME         = "templeton.hadoop";
     public static final String HADOOP_CONF_DIR     = "templeton.hadoop.conf.dir";
     public static final String HCAT_NAME           = "templeton.hcat";
+    public static final String HCAT_DIRECT_READS_NAME = "templeton.hcat.direct-reads";
     public static final String HIVE_ARCHIVE_NAME   = "templeton.hive.archive";
     public static final String HIVE_PATH_NAME      = "templeton.hive.path";
     public static final String HIVE_PROPS_NAME     = "templeton.hive.properties";
@@ -164,6 +167,27 @@ public class AppConfig extends Configuration {
         return false;
     }
 
+    /**
+     * Is the variable set to something other than its value in
+     * templeton-default.xml, such as by templeton-site.xml?
+     */
+    public boolean isChangedFromDefault(String name) {
+        Configuration defaults = new Configuration(false);
+        String fname = TEMPLETON_CONF_FILENAMES[0];
+        URL x = getResource(fname);
+        if (x != null) {
+            defaults.addResource(x);
+        } else if (getTempletonDir() != null) {
+            File f = new File(getTempletonDir(), fname);
+            if (f.exists())
+                defaults.addResource(new Path(f.getAbsolutePath()));
+        }
+
+        String cur = getRaw(name);
+        String def = defaults.getRaw(name);
+        return (cur == null) ? (def != null) : ! cur.equals(def);
+    }
+
     public String templetonJar()     { return get(TEMPLETON_JAR_NAME); }
     public String libJars()          { return get(LIB_JARS_NAME); }
     public String clusterHadoop()    { return get(HADOOP_NAME); }
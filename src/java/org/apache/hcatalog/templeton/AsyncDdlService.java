@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.Response;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hcatalog.templeton.tool.JobState;
+
+/**
+ * Run ddl calls in the background.  This is a singleton service.
+ *
+ * Each call gets a ticket that is returned to the client at once.
+ * The calls run on a pool of templeton.ddl.async.threads threads
+ * with at most templeton.ddl.async.max-queued calls waiting.  They
+ * don't take the exec slots of the foreground calls and may run for
+ * templeton.ddl.async.timeout-ms instead of templeton.exec.timeout.
+ *
+ * The ticket status and result are saved in the same storage as the
+ * job state, so they are cleaned up the same way.
+ */
+public class AsyncDdlService {
+    private static final Log LOG = LogFactory.getLog(AsyncDdlService.class);
+
+    public static final String THREADS_NAME    = "templeton.ddl.async.threads";
+    public static final String MAX_QUEUED_NAME = "templeton.ddl.async.max-queued";
+    public static final String TIMEOUT_NAME    = "templeton.ddl.async.timeout-ms";
+
+    public static final String TICKET_PREFIX = "ddl_";
+
+    // The field with the user who made the call.  Not the job user,
+    // which would put the ticket in the user's job index, where it
+    // isn't a job id.
+    private static final String OWNER_FIELD = "owner";
+
+    // The ticket states
+    public static final String QUEUED    = "QUEUED";
+    public static final String RUNNING   = "RUNNING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED    = "FAILED";
+
+    private static volatile AsyncDdlService theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized AsyncDdlService getInstance() {
+        if (theSingleton == null)
+            theSingleton = new AsyncDdlService(Main.getAppConfigInstance());
+        return theSingleton;
+    }
+
+    /**
+     * A ddl call to run in the background.
+     */
+    public interface DdlCall {
+        /**
+         * Run the call with a delegator that uses the background
+         * exec service.
+         */
+        public Response run(HcatDelegator d) throws Throwable;
+    }
+
+    private AppConfig appConf;
+    private ThreadPoolExecutor pool;
+    private ExecService execService;
+
+    // Stats
+    private AtomicInteger submitted = new AtomicInteger();
+    private AtomicInteger succeeded = new AtomicInteger();
+    private AtomicInteger failed = new AtomicInteger();
+    private AtomicInteger rejected = new AtomicInteger();
+
+    private AsyncDdlService(AppConfig appConf) {
+        this.appConf = appConf;
+        int threads = appConf.getInt(THREADS_NAME, 4);
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(appConf.getInt(MAX_QUEUED_NAME, 100)),
+            new ThreadFactory() {
+                private int n = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "async-ddl-" + (++n));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        execService = new AsyncExecService(appConf.getInt(TIMEOUT_NAME, 3600000));
+    }
+
+    /**
+     * Queue a ddl call and return its ticket.
+     *
+     * @param user        The user making the call
+     * @param description What the call does, shown in the ticket status
+     * @param call        The call to run
+     */
+    public Response submit(final String user, String description, final DdlCall call)
+        throws BusyException, IOException
+    {
+        final String id = TICKET_PREFIX + UUID.randomUUID().toString().replace("-", "");
+        JobState state = null;
+        try {
+            state = new JobState(id, appConf);
+            state.setField(OWNER_FIELD, user);
+            state.setCreated(System.currentTimeMillis());
+            state.setField("description", description);
+            state.setField("status", QUEUED);
+        } finally {
+            if (state != null)
+                state.close();
+        }
+
+        try {
+            pool.execute(new Runnable() {
+                    public void run() {
+                        runTicket(id, call);
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            delete(id);
+            throw new BusyException();
+        }
+        submitted.incrementAndGet();
+
+        return JsonBuilder.create()
+            .put("ticket", id)
+            .put("status", QUEUED)
+            .build();
+    }
+
+    /**
+     * The status of a ticket, and the result of the call once it is
+     * done.  Only the user who made the call can see it.
+     */
+    public Map<String, Object> status(String user, String id)
+        throws BadParam, IOException
+    {
+        if (id == null || ! id.matches(TICKET_PREFIX + "[0-9a-f]+"))
+            throw new BadParam("Invalid ticket: " + id);
+
+        JobState state = null;
+        try {
+            state = new JobState(id, appConf);
+            if (state.getField("status") == null
+                || ! user.equals(state.getField(OWNER_FIELD)))
+                throw new BadParam("Could not find ticket " + id);
+
+            HashMap<String, Object> res = new HashMap<String, Object>();
+            res.put("ticket", id);
+            res.put("status", state.getField("status"));
+            res.put("description", state.getField("description"));
+            res.put("user", state.getField(OWNER_FIELD));
+            res.put("created", state.getCreated());
+            Long exitValue = state.getExitValue();
+            if (exitValue != null)
+                res.put("httpStatus", exitValue);
+            String result = state.getField("result");
+            if (result != null) {
+                try {
+                    res.put("result", JsonBuilder.jsonToMap(result));
+                } catch (IOException e) {
+                    res.put("result", result);
+                }
+            }
+            return res;
+        } finally {
+            if (state != null)
+                state.close();
+        }
+    }
+
+    /**
+     * The background pool statistics.
+     */
+    public Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("active", pool.getActiveCount());
+        res.put("queued", pool.getQueue().size());
+        res.put("submitted", submitted.get());
+        res.put("succeeded", succeeded.get());
+        res.put("failed", failed.get());
+        res.put("rejected", rejected.get());
+        return res;
+    }
+
+    // Run the call and save its result in the ticket.
+    private void runTicket(String id, DdlCall call) {
+        saveFields(id, RUNNING, null, null);
+
+        Response res;
+        try {
+            res = call.run(new HcatDelegator(appConf, execService));
+        } catch (SimpleWebException e) {
+            res = e.getResponse();
+        } catch (Throwable e) {
+            LOG.error("Async ddl " + id + " failed", e);
+            res = SimpleWebException.buildMessage(JsonBuilder.SERVER_ERROR, null,
+                                                  e.getMessage());
+        }
+
+        String result = null;
+        Object entity = res.getEntity();
+        try {
+            if (entity instanceof String)
+                result = (String) entity;
+            else if (entity != null)
+                result = JsonBuilder.mapToJson(entity);
+        } catch (IOException e) {
+            LOG.error("Unable to save the result of " + id, e);
+        }
+
+        boolean ok = res.getStatus() == JsonBuilder.OK;
+        if (ok)
+            succeeded.incrementAndGet();
+        else
+            failed.incrementAndGet();
+        saveFields(id, ok ? SUCCEEDED : FAILED, (long) res.getStatus(), result);
+    }
+
+    private void saveFields(String id, String status, Long httpStatus, String result) {
+        JobState state = null;
+        try {
+            state = new JobState(id, appConf);
+            if (result != null)
+                state.setField("result", result);
+            if (httpStatus != null) {
+                state.setExitValue(httpStatus);
+                state.setCompleteStatus("done");
+            }
+            state.setField("status", status);
+        } catch (IOException e) {
+            LOG.error("Unable to save the status of " + id, e);
+        } finally {
+            try {
+                if (state != null)
+                    state.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    private void delete(String id) {
+        JobState state = null;
+        try {
+            state = new JobState(id, appConf);
+            state.delete();
+            state.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to delete ticket " + id, e);
+        }
+    }
+
+    // Runs hcat for the background calls: outside the exec slots and
+    // with the async timeout.
+    private static class AsyncExecService implements ExecService {
+        private int timeout;
+
+        AsyncExecService(int timeout) {
+            this.timeout = timeout;
+        }
+
+        public ExecBean run(String program, List<String> args,
+                            Map<String, String> env)
+            throws NotAuthorizedException, BusyException, ExecuteException, IOException
+        {
+            return runUnlimited(program, args, env);
+        }
+
+        public ExecBean run(String user, long maxWait, String program,
+                            List<String> args, Map<String, String> env)
+            throws NotAuthorizedException, BusyException, ExecuteException, IOException
+        {
+            return runUnlimited(program, args, env);
+        }
+
+        public ExecBean runUnlimited(String program, List<String> args,
+                                     Map<String, String> env)
+            throws NotAuthorizedException, ExecuteException, IOException
+        {
+            return ExecServiceImpl.getInstance().runUnlimited(program, args, env, timeout);
+        }
+    }
+}
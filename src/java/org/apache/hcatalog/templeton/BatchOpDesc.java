@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * One operation in a ddl batch.  Exactly one of the operation
+ * descriptions should be set.
+ */
+@XmlRootElement
+public class BatchOpDesc {
+    public String database;
+    public String table;
+
+    public TableDesc createTable;
+    public PartitionDesc addPartition;
+    public TablePropertyDesc addProperty;
+    public ColumnDesc addColumn;
+    public DropPartitionDesc dropPartition;
+
+    public BatchOpDesc() {}
+
+    /**
+     * The name of the operation, or null if none or more than one
+     * are set.
+     */
+    public String opName() {
+        String res = null;
+        int n = 0;
+        if (createTable != null) {
+            res = "createTable";
+            ++n;
+        }
+        if (addPartition != null) {
+            res = "addPartition";
+            ++n;
+        }
+        if (addProperty != null) {
+            res = "addProperty";
+            ++n;
+        }
+        if (addColumn != null) {
+            res = "addColumn";
+            ++n;
+        }
+        if (dropPartition != null) {
+            res = "dropPartition";
+            ++n;
+        }
+        return (n == 1) ? res : null;
+    }
+
+    /**
+     * The description of the operation that is set.
+     */
+    public GroupPermissionsDesc opDesc() {
+        if (createTable != null)
+            return createTable;
+        if (addPartition != null)
+            return addPartition;
+        if (addProperty != null)
+            return addProperty;
+        if (addColumn != null)
+            return addColumn;
+        return dropPartition;
+    }
+
+    public String toString() {
+        return String.format("BatchOpDesc(database=%s, table=%s, op=%s)",
+                             database, table, opName());
+    }
+}
@@ -17,10 +17,31 @@
  */
 package org.apache.hcatalog.templeton;
 
+import java.io.IOException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 /**
  * CompleteBean - The results of an CompleteDelegator run.
  */
+@JsonSerialize(using = CompleteBean.Serializer.class)
 public class CompleteBean {
+    /**
+     * Writes a CompleteBean as json.
+     */
+    public static class Serializer extends JsonSerializer<CompleteBean> {
+        public void serialize(CompleteBean bean, JsonGenerator gen,
+                              SerializerProvider provider)
+            throws IOException
+        {
+            gen.writeStartObject();
+            gen.writeStringField("status", bean.status);
+            gen.writeEndObject();
+        }
+    }
+
     public String status;
 
     public CompleteBean() {}
@@ -21,9 +21,7 @@ import java.io.IOException;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.JobProfile;
 import org.apache.hadoop.mapred.JobStatus;
-import org.apache.hadoop.mapred.JobTracker;
 import org.apache.hadoop.mapred.TempletonJobTracker;
-import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hcatalog.templeton.tool.JobState;
 
 /**
@@ -37,13 +35,11 @@ public class DeleteDelegator extends TempletonDelegator {
     public QueueStatusBean run(String user, String id)
         throws NotAuthorizedException, BadParam, IOException
     {
-        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+        JobTrackerPool pool = JobTrackerPool.getInstance();
         TempletonJobTracker tracker = null;
         JobState state = null;
         try {
-            tracker = new TempletonJobTracker(ugi,
-                                              JobTracker.getAddress(appConf),
-                                              appConf);
+            tracker = pool.borrow(user);
             JobID jobid = StatusDelegator.StringToJobID(id);
             if (jobid == null)
                 throw new BadParam("Invalid jobid: " + id);
@@ -56,8 +52,7 @@ public class DeleteDelegator extends TempletonDelegator {
         } catch (IllegalStateException e) {
             throw new BadParam(e.getMessage());
         } finally {
-            if (tracker != null)
-                tracker.close();
+            pool.release(tracker);
             if (state != null)
                 state.close();
         }
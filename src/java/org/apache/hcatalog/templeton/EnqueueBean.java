@@ -17,10 +17,31 @@
  */
 package org.apache.hcatalog.templeton;
 
+import java.io.IOException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 /**
  * EnqueueBean - The results of a call that enqueues a Hadoop job.
  */
+@JsonSerialize(using = EnqueueBean.Serializer.class)
 public class EnqueueBean {
+    /**
+     * Writes an EnqueueBean as json.
+     */
+    public static class Serializer extends JsonSerializer<EnqueueBean> {
+        public void serialize(EnqueueBean bean, JsonGenerator gen,
+                              SerializerProvider provider)
+            throws IOException
+        {
+            gen.writeStartObject();
+            gen.writeStringField("id", bean.id);
+            gen.writeEndObject();
+        }
+    }
+
     public String id;
 
     public EnqueueBean() {}
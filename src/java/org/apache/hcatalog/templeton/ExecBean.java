@@ -17,10 +17,33 @@
  */
 package org.apache.hcatalog.templeton;
 
+import java.io.IOException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 /**
  * ExecBean - The results of an exec call.
  */
+@JsonSerialize(using = ExecBean.Serializer.class)
 public class ExecBean {
+    /**
+     * Writes an ExecBean as json.
+     */
+    public static class Serializer extends JsonSerializer<ExecBean> {
+        public void serialize(ExecBean bean, JsonGenerator gen,
+                              SerializerProvider provider)
+            throws IOException
+        {
+            gen.writeStartObject();
+            gen.writeStringField("stdout", bean.stdout);
+            gen.writeStringField("stderr", bean.stderr);
+            gen.writeNumberField("exitcode", bean.exitcode);
+            gen.writeEndObject();
+        }
+    }
+
     public String stdout;
     public String stderr;
     public int exitcode;
@@ -28,6 +28,15 @@ public interface ExecService {
                         Map<String, String> env)
         throws NotAuthorizedException, BusyException, ExecuteException, IOException;
 
+    /**
+     * Run the program for the given user, waiting up to maxWait
+     * milliseconds for the server to have room for it.  A negative
+     * maxWait uses the server default.
+     */
+    public ExecBean run(String user, long maxWait, String program,
+                        List<String> args, Map<String, String> env)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException;
+
     public ExecBean runUnlimited(String program, List<String> args,
                                  Map<String, String> env)
         throws NotAuthorizedException, ExecuteException, IOException;
@@ -17,18 +17,17 @@
  */
 package org.apache.hcatalog.templeton;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -39,55 +38,136 @@ import org.apache.commons.logging.LogFactory;
  */
 public class ExecServiceImpl implements ExecService {
     private static final Log LOG = LogFactory.getLog(ExecServiceImpl.class);
-    private static AppConfig appConf = Main.getAppConfigInstance();
+    protected static AppConfig appConf = Main.getAppConfigInstance();
+
+    // How long to wait for the pumps of a killed program to stop.
+    private static final long PUMP_STOP_MS = 5000;
 
     private static volatile ExecServiceImpl theSingleton;
 
     /**
-     * Retrieve the singleton.
+     * Retrieve the singleton.  This is an HcatWorkerExecService if
+     * the hcat workers are turned on, or else a SpawnExecService if
+     * the spawn server is turned on.
      */
     public static synchronized ExecServiceImpl getInstance() {
         if (theSingleton == null) {
-            theSingleton = new ExecServiceImpl();
+            if (HcatWorkerExecService.isEnabled(appConf))
+                theSingleton = new HcatWorkerExecService();
+            else if (SpawnExecService.isEnabled(appConf))
+                theSingleton = new SpawnExecService();
+            else
+                theSingleton = new ExecServiceImpl();
         }
         return theSingleton;
     }
 
-    private Semaphore avail;
+    private ExecSlots slots;
+    private long maxWait;
+
+    protected ExecServiceImpl() {
+        slots = new ExecSlots(appConf.getInt(AppConfig.EXEC_MAX_PROCS_NAME, 16),
+                              appConf.getInt(AppConfig.EXEC_MAX_QUEUED_NAME, 100),
+                              new ExecShares(appConf));
+        maxWait = appConf.getLong(AppConfig.EXEC_MAX_WAIT_NAME, 5000);
+    }
 
-    private ExecServiceImpl() {
-        avail = new Semaphore(appConf.getInt(AppConfig.EXEC_MAX_PROCS_NAME, 16));
+    /**
+     * Run the program synchronously as the user in HADOOP_USER_NAME.
+     * See the other run.
+     */
+    public ExecBean run(String program, List<String> args,
+                        Map<String, String> env)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        String user = (env == null) ? null : env.get("HADOOP_USER_NAME");
+        return run(user, -1, program, args, env);
     }
 
     /**
      * Run the program synchronously as the given user. We rate limit
      * the number of processes that can simultaneously created for
-     * this instance.
+     * this instance.  When they are all running the call waits in a
+     * line that is fair across users, for at most
+     * templeton.exec.max-wait-ms.  See ExecSlots and ExecShares for
+     * how the slots are shared.
      *
      * @param user      A valid user
+     * @param wait      How long to wait for a free slot, negative for
+     *                  the server default.  Never more than the default.
      * @param program   The program to run
      * @param env       Any extra environment variables to set
      * @returns         The result of the run.
      */
-    public ExecBean run(String program, List<String> args,
-                        Map<String, String> env)
+    public ExecBean run(String user, long wait, String program,
+                        List<String> args, Map<String, String> env)
         throws NotAuthorizedException, BusyException, ExecuteException, IOException
     {
-        boolean aquired = false;
+        slots.acquire(user, (wait < 0) ? maxWait : Math.min(wait, maxWait));
         try {
-            aquired = avail.tryAcquire();
-            if (aquired) {
-                return runUnlimited(program, args, env);
-            } else {
-                throw new BusyException();
-            }
+            return runUnlimited(program, args, env);
         } finally {
-            if (aquired) {
-                avail.release();
-            }
+            slots.release(user);
         }
     }
 
+    /**
+     * Start the program for the given user and return at once, with
+     * its stdout to be read as it is written.  The program holds a
+     * process slot until it is finished, or until it is killed for
+     * never being read.  See StreamingExec.  The stdout is not limited
+     * to templeton.exec.max-output-bytes, since it is never held in
+     * memory.  See run for the other arguments.
+     *
+     * @param cleanup   Run once the program is done, or if it fails to
+     *                  start.  May be null.
+     * @returns         The running program.
+     */
+    public StreamingExec runStreaming(final String user, long wait, String program,
+                                      List<String> args, Map<String, String> env,
+                                      final Runnable cleanup)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        try {
+            slots.acquire(user, (wait < 0) ? maxWait : Math.min(wait, maxWait));
+        } catch (BusyException e) {
+            if (cleanup != null)
+                cleanup.run();
+            throw e;
+        }
+        Runnable done = new Runnable() {
+                public void run() {
+                    slots.release(user);
+                    if (cleanup != null)
+                        cleanup.run();
+                }
+            };
+
+        boolean started = false;
+        try {
+            CommandLine cmd = makeCommandLine(program, args);
+            LOG.info("Running streaming: " + cmd);
+            Process proc = start(cmd, env);
+            started = true;
+            int nbytes = appConf.getInt(AppConfig.EXEC_MAX_BYTES_NAME, -1);
+            return new StreamingExec(proc,
+                                     new PooledOutputStream(OutputBufferPool.getInstance(),
+                                                            nbytes),
+                                     appConf.getInt(AppConfig.EXEC_TIMEOUT_NAME, 0),
+                                     appConf.get(AppConfig.EXEC_ENCODING_NAME), done);
+        } finally {
+            if (! started)
+                done.run();
+        }
+    }
+
+    /**
+     * The process slot statistics.
+     */
+    public Map<String, Object> slotStats() {
+        return slots.stats();
+    }
+
     /**
      * Run the program synchronously as the given user.  Warning:
      * CommandLine will trim the argument strings.
@@ -99,9 +179,24 @@ public class ExecServiceImpl implements ExecService {
     public ExecBean runUnlimited(String program, List<String> args,
                                  Map<String, String> env)
         throws NotAuthorizedException, ExecuteException, IOException
+    {
+        return runUnlimited(program, args, env,
+                            appConf.getInt(AppConfig.EXEC_TIMEOUT_NAME, 0));
+    }
+
+    /**
+     * Run the program synchronously as the given user, killing it
+     * after timeout milliseconds instead of templeton.exec.timeout.
+     *
+     * @param timeout   How long in milliseconds to let the program run.
+     * @returns         The result of the run.
+     */
+    public ExecBean runUnlimited(String program, List<String> args,
+                                 Map<String, String> env, int timeout)
+        throws NotAuthorizedException, ExecuteException, IOException
     {
         try {
-            return auxRun(program, args, env);
+            return auxRun(program, args, env, timeout);
         } catch (IOException e) {
             File cwd = new java.io.File(".");
             if (cwd.canRead() && cwd.canWrite())
@@ -112,33 +207,100 @@ public class ExecServiceImpl implements ExecService {
         }
     }
 
-    private ExecBean auxRun(String program, List<String> args, Map<String, String> env)
+    private ExecBean auxRun(String program, List<String> args, Map<String, String> env,
+                            int timeout)
         throws NotAuthorizedException, ExecuteException, IOException
     {
-        DefaultExecutor executor = new DefaultExecutor();
-        executor.setExitValues(null);
+        CommandLine cmd = makeCommandLine(program, args);
+        LOG.info("Running: " + cmd);
+        Process proc = start(cmd, env);
 
-        // Setup stdout and stderr
+        // Setup stdout and stderr, in buffers reused across calls,
+        // copied by the shared pumps.
         int nbytes = appConf.getInt(AppConfig.EXEC_MAX_BYTES_NAME, -1);
-        ByteArrayOutputStream outStream = new MaxByteArrayOutputStream(nbytes);
-        ByteArrayOutputStream errStream = new MaxByteArrayOutputStream(nbytes);
-        executor.setStreamHandler(new PumpStreamHandler(outStream, errStream));
+        OutputBufferPool pool = OutputBufferPool.getInstance();
+        PooledOutputStream outStream = new PooledOutputStream(pool, nbytes);
+        PooledOutputStream errStream = new PooledOutputStream(pool, nbytes);
 
         // Only run for N milliseconds
-        int timeout = appConf.getInt(AppConfig.EXEC_TIMEOUT_NAME, 0);
-        ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-        executor.setWatchdog(watchdog);
+        ExecTimer.Timeout kill = killAfter(proc, timeout);
+        Future<?> outPump = null;
+        Future<?> errPump = null;
+        try {
+            outPump = StreamPumps.getInstance().pump(proc.getInputStream(), outStream);
+            errPump = StreamPumps.getInstance().pump(proc.getErrorStream(), errStream);
+            ExecBean res = new ExecBean();
+            res.exitcode = proc.waitFor();
+            StreamPumps.join(outPump);
+            StreamPumps.join(errPump);
+            String enc = appConf.get(AppConfig.EXEC_ENCODING_NAME);
+            res.stdout = outStream.toString(enc);
+            res.stderr = errStream.toString(enc);
 
-        CommandLine cmd = makeCommandLine(program, args);
+            return res;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            if (kill != null)
+                kill.cancel();
+            proc.destroy();
+            releaseWhenStopped(outPump, outStream);
+            releaseWhenStopped(errPump, errStream);
+        }
+    }
 
-        LOG.info("Running: " + cmd);
-        ExecBean res = new ExecBean();
-        res.exitcode = executor.execute(cmd, execEnv(env));
-        String enc = appConf.get(AppConfig.EXEC_ENCODING_NAME);
-        res.stdout = outStream.toString(enc);
-        res.stderr = errStream.toString(enc);
+    // Give the segments of a stream back to the pool once its pump
+    // has stopped.  A pump that is still copying after the program is
+    // killed keeps its segments, which are then never pooled.
+    private static void releaseWhenStopped(Future<?> pump, PooledOutputStream out) {
+        if (pump != null && ! pump.isDone()) {
+            try {
+                pump.get(PUMP_STOP_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // The pump failed, but it has stopped.
+            } catch (TimeoutException e) {
+                // Still copying.
+            }
+        }
+        if (pump == null || pump.isDone()) {
+            out.release();
+        } else {
+            LOG.warn("An exec output pump didn't stop, dropping its buffers");
+            out.discard();
+        }
+    }
 
-        return res;
+    // Start a program with exactly the exec environment and no stdin.
+    private Process start(CommandLine cmd, Map<String, String> env)
+        throws IOException
+    {
+        ProcessBuilder pb = new ProcessBuilder(cmd.toStrings());
+        pb.environment().clear();
+        pb.environment().putAll(execEnv(env));
+        Process proc = pb.start();
+        try {
+            proc.getOutputStream().close();
+        } catch (IOException e) {
+            // The program doesn't read stdin anyway.
+        }
+        return proc;
+    }
+
+    /**
+     * Kill the program after timeout milliseconds, using the shared
+     * ExecTimer.  Returns null for no timeout.
+     */
+    static ExecTimer.Timeout killAfter(final Process proc, int timeout) {
+        if (timeout <= 0)
+            return null;
+        return ExecTimer.getInstance().schedule(new Runnable() {
+                public void run() {
+                    LOG.warn("Killing a program that ran too long");
+                    proc.destroy();
+                }
+            }, timeout);
     }
 
     private CommandLine makeCommandLine(String program,
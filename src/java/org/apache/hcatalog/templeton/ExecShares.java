@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * The weights and caps of the users sharing the exec slots, from the
+ * configuration.  Each setting is a list of name=value pairs:
+ *
+ *   templeton.exec.user-weights   the weight of a user
+ *   templeton.exec.group-weights  the weight of the users in a group
+ *   templeton.exec.user-caps      the most slots a user may hold
+ *   templeton.exec.group-caps     the most slots a user in a group may hold
+ *
+ * A user setting wins over a group setting.  A user in several groups
+ * gets the largest of their group settings.  Everyone else has a
+ * weight of 1 and the cap templeton.exec.default-cap, where 0 is no
+ * cap.  The groups are only looked up if there are group settings.
+ */
+public class ExecShares implements ExecSlots.SharePolicy {
+    private static final Log LOG = LogFactory.getLog(ExecShares.class);
+
+    public static final String USER_WEIGHTS_NAME  = "templeton.exec.user-weights";
+    public static final String GROUP_WEIGHTS_NAME = "templeton.exec.group-weights";
+    public static final String USER_CAPS_NAME     = "templeton.exec.user-caps";
+    public static final String GROUP_CAPS_NAME    = "templeton.exec.group-caps";
+    public static final String DEFAULT_CAP_NAME   = "templeton.exec.default-cap";
+
+    private Map<String, Integer> userWeights;
+    private Map<String, Integer> groupWeights;
+    private Map<String, Integer> userCaps;
+    private Map<String, Integer> groupCaps;
+    private int defaultCap;
+
+    public ExecShares(AppConfig appConf) {
+        userWeights = parse(appConf, USER_WEIGHTS_NAME);
+        groupWeights = parse(appConf, GROUP_WEIGHTS_NAME);
+        userCaps = parse(appConf, USER_CAPS_NAME);
+        groupCaps = parse(appConf, GROUP_CAPS_NAME);
+        defaultCap = appConf.getInt(DEFAULT_CAP_NAME, 0);
+    }
+
+    public int weight(String user) {
+        return lookup(user, userWeights, groupWeights, 1);
+    }
+
+    public int cap(String user) {
+        return lookup(user, userCaps, groupCaps, defaultCap);
+    }
+
+    private int lookup(String user, Map<String, Integer> users,
+                       Map<String, Integer> groups, int dflt)
+    {
+        if (user == null)
+            return dflt;
+        Integer val = users.get(user);
+        if (val != null)
+            return val;
+        if (groups.isEmpty())
+            return dflt;
+
+        Integer best = null;
+        for (String group : groupsOf(user)) {
+            Integer g = groups.get(group);
+            if (g != null && (best == null || g > best))
+                best = g;
+        }
+        return (best == null) ? dflt : best;
+    }
+
+    // The groups of the user, from the Hadoop group mapping, which
+    // caches them.
+    private String[] groupsOf(String user) {
+        try {
+            return UserGroupInformation.createRemoteUser(user).getGroupNames();
+        } catch (Exception e) {
+            LOG.warn("Unable to find the groups of " + user + ": " + e);
+            return new String[0];
+        }
+    }
+
+    // Parse a list of name=value pairs.
+    private static Map<String, Integer> parse(AppConfig appConf, String name) {
+        HashMap<String, Integer> res = new HashMap<String, Integer>();
+        String[] pairs = appConf.getStrings(name);
+        if (pairs == null)
+            return res;
+        for (String pair : pairs) {
+            String[] kv = pair.trim().split("=", 2);
+            try {
+                if (kv.length == 2 && kv[0].trim().length() > 0)
+                    res.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+                else
+                    LOG.warn("Ignoring bad " + name + " entry: " + pair);
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring bad " + name + " entry: " + pair);
+            }
+        }
+        return res;
+    }
+}
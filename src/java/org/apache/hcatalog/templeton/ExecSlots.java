@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * The slots for running local programs.  A caller that finds every
+ * slot in use waits in line, up to a deadline, instead of failing at
+ * once.
+ *
+ * The slots are shared fairly by weight.  Each user has their own
+ * first in first out line, and a free slot goes to the waiting user
+ * holding the fewest slots for their weight, so one user with many
+ * waiting calls can't starve everyone else.  Ties go to the user
+ * served least recently.  A user may also have a cap on the slots
+ * they hold at once.  Below the cap a user may borrow any idle slot,
+ * even past their fair share, since nothing else wants it.
+ *
+ * At most maxQueued callers may wait; past that, or past the
+ * deadline, the caller gets a BusyException.
+ */
+public class ExecSlots {
+    // The upper bounds, in milliseconds, of the wait time histogram.
+    private static final long[] WAIT_BUCKETS = {1, 10, 100, 1000, 10000};
+
+    /**
+     * How the slots are shared between users.
+     */
+    public interface SharePolicy {
+        /**
+         * The weight of a user.  A user with twice the weight gets
+         * twice the slots when both are waiting.
+         */
+        public int weight(String user);
+
+        /**
+         * The most slots a user may hold at once, 0 for no limit.
+         */
+        public int cap(String user);
+    }
+
+    /**
+     * Every user has the same weight and no cap.
+     */
+    public static final SharePolicy EQUAL_SHARES = new SharePolicy() {
+            public int weight(String user) {
+                return 1;
+            }
+
+            public int cap(String user) {
+                return 0;
+            }
+        };
+
+    // One waiting caller.
+    private static class Waiter {
+        final long queued = System.currentTimeMillis();
+        boolean granted = false;
+    }
+
+    // The slots held and the callers waiting for one user.  Kept only
+    // while the user holds a slot or is waiting.
+    private static class Share {
+        final int weight;
+        final int cap;
+        int running = 0;
+        long lastGranted = 0;
+        final LinkedList<Waiter> line = new LinkedList<Waiter>();
+
+        Share(int weight, int cap) {
+            this.weight = Math.max(1, weight);
+            this.cap = cap;
+        }
+
+        boolean underCap() {
+            return cap <= 0 || running < cap;
+        }
+    }
+
+    private final int slots;
+    private final int maxQueued;
+    private final SharePolicy policy;
+    private int inUse = 0;
+    private int queued = 0;
+    private long grants = 0;    // Orders the grants, for the ties.
+
+    private final HashMap<String, Share> shares = new HashMap<String, Share>();
+
+    // Stats
+    private long granted = 0;
+    private long waited = 0;
+    private long rejectedFull = 0;
+    private long rejectedTimeout = 0;
+    private int maxDepth = 0;
+    private final long[] waitHistogram = new long[WAIT_BUCKETS.length + 1];
+
+    /**
+     * Create the slots, shared equally.
+     *
+     * @param slots     How many programs may run at once
+     * @param maxQueued How many callers may wait for a slot
+     */
+    public ExecSlots(int slots, int maxQueued) {
+        this(slots, maxQueued, EQUAL_SHARES);
+    }
+
+    /**
+     * Create the slots.
+     *
+     * @param slots     How many programs may run at once
+     * @param maxQueued How many callers may wait for a slot
+     * @param policy    The weight and cap of each user
+     */
+    public ExecSlots(int slots, int maxQueued, SharePolicy policy) {
+        this.slots = slots;
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+    }
+
+    /**
+     * Take a slot, waiting up to maxWait milliseconds for one.  Every
+     * successful acquire must be followed by a release for the same
+     * user.
+     *
+     * @param user    The user the slot is for, may be null
+     * @param maxWait How long to wait, 0 to not wait at all
+     */
+    public void acquire(String user, long maxWait)
+        throws BusyException
+    {
+        // The policy may need to look up the groups of the user, so
+        // ask it before taking the lock.
+        acquire(user, policy.weight(user), policy.cap(user), maxWait);
+    }
+
+    private synchronized void acquire(String user, int weight, int cap, long maxWait)
+        throws BusyException
+    {
+        Share share = shares.get(user);
+        if (share == null) {
+            share = new Share(weight, cap);
+            shares.put(user, share);
+        }
+        if (inUse < slots && share.underCap() && share.line.isEmpty()) {
+            grant(share);
+            countWait(0);
+            return;
+        }
+        if (maxWait <= 0 || queued >= maxQueued) {
+            ++rejectedFull;
+            forget(user, share);
+            throw new BusyException();
+        }
+
+        Waiter w = new Waiter();
+        share.line.add(w);
+        ++queued;
+        maxDepth = Math.max(maxDepth, queued);
+
+        long deadline = w.queued + maxWait;
+        try {
+            while (! w.granted) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    break;
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (! w.granted) {
+            share.line.remove(w);
+            --queued;
+            forget(user, share);
+            ++rejectedTimeout;
+            throw new BusyException();
+        }
+        ++waited;
+        countWait(System.currentTimeMillis() - w.queued);
+    }
+
+    /**
+     * Give back a slot, handing it to the next waiting user.
+     */
+    public synchronized void release(String user) {
+        Share share = shares.get(user);
+        --inUse;
+        if (share != null) {
+            --share.running;
+            forget(user, share);
+        }
+        dispatch();
+    }
+
+    /**
+     * The slot statistics, with the current allocation of each user
+     * holding or waiting for a slot.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("slots", slots);
+        res.put("inUse", inUse);
+        res.put("queued", queued);
+        res.put("maxQueued", maxDepth);
+        res.put("granted", granted);
+        res.put("waited", waited);
+        res.put("rejectedFull", rejectedFull);
+        res.put("rejectedTimeout", rejectedTimeout);
+
+        LinkedHashMap<String, Long> hist = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < WAIT_BUCKETS.length; ++i)
+            hist.put("<" + WAIT_BUCKETS[i] + "ms", waitHistogram[i]);
+        hist.put(">=" + WAIT_BUCKETS[WAIT_BUCKETS.length - 1] + "ms",
+                 waitHistogram[WAIT_BUCKETS.length]);
+        res.put("waitTime", hist);
+
+        res.put("users", allocations());
+        return res;
+    }
+
+    /**
+     * The current allocation of each user holding or waiting for a
+     * slot: the slots held and waited for, the weight and cap, and
+     * the fair share of the slots among these users.
+     */
+    public synchronized Map<String, Object> allocations() {
+        int totalWeight = 0;
+        for (Share s : shares.values())
+            totalWeight += s.weight;
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        for (Map.Entry<String, Share> e : shares.entrySet()) {
+            Share s = e.getValue();
+            HashMap<String, Object> m = new HashMap<String, Object>();
+            m.put("running", s.running);
+            m.put("waiting", s.line.size());
+            m.put("weight", s.weight);
+            m.put("cap", s.cap);
+            m.put("fairShare", (double) slots * s.weight / totalWeight);
+            res.put(String.valueOf(e.getKey()), m);
+        }
+        return res;
+    }
+
+    // Hand out the free slots to the waiting users.
+    private void dispatch() {
+        while (inUse < slots && queued > 0) {
+            Share next = null;
+            for (Share s : shares.values()) {
+                if (s.line.isEmpty() || ! s.underCap())
+                    continue;
+                if (next == null || before(s, next))
+                    next = s;
+            }
+            if (next == null)
+                return;         // Everyone waiting is at their cap.
+
+            Waiter w = next.line.removeFirst();
+            --queued;
+            w.granted = true;
+            grant(next);
+        }
+        notifyAll();
+    }
+
+    // Should user a get the next slot before user b?
+    private boolean before(Share a, Share b) {
+        long x = (long) a.running * b.weight;
+        long y = (long) b.running * a.weight;
+        if (x != y)
+            return x < y;
+        if (a.lastGranted != b.lastGranted)
+            return a.lastGranted < b.lastGranted;
+        return a.line.getFirst().queued < b.line.getFirst().queued;
+    }
+
+    private void grant(Share share) {
+        ++inUse;
+        ++share.running;
+        share.lastGranted = ++grants;
+        ++granted;
+    }
+
+    // Drop the share of a user that has nothing running or waiting.
+    private void forget(String user, Share share) {
+        if (share.running <= 0 && share.line.isEmpty())
+            shares.remove(user);
+    }
+
+    private void countWait(long ms) {
+        int i = 0;
+        while (i < WAIT_BUCKETS.length && ms >= WAIT_BUCKETS[i])
+            ++i;
+        ++waitHistogram[i];
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * One timer for the timeouts of every local program.  This is a
+ * singleton service.
+ *
+ * The timer is a hashed wheel: a ring of buckets, one per tick of
+ * templeton.exec.timer.tick-ms.  A timeout goes in the bucket of the
+ * tick it is due, counting the turns of the wheel still to go, so
+ * adding and cancelling a timeout take constant time no matter how
+ * many are pending.  A single thread turns the wheel and runs the due
+ * tasks, so a timeout fires up to one tick late.  The tasks must be
+ * quick, such as killing a process.
+ */
+public class ExecTimer {
+    private static final Log LOG = LogFactory.getLog(ExecTimer.class);
+
+    public static final String TICK_NAME = "templeton.exec.timer.tick-ms";
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static volatile ExecTimer theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized ExecTimer getInstance() {
+        if (theSingleton == null) {
+            AppConfig appConf = Main.getAppConfigInstance();
+            theSingleton = new ExecTimer(appConf.getLong(TICK_NAME, 100), WHEEL_SIZE);
+        }
+        return theSingleton;
+    }
+
+    /**
+     * A pending task.
+     */
+    public class Timeout {
+        private final Runnable task;
+        private final int bucket;
+        private long rounds;
+
+        private Timeout(Runnable task, int bucket, long rounds) {
+            this.task = task;
+            this.bucket = bucket;
+            this.rounds = rounds;
+        }
+
+        /**
+         * Don't run the task, if it hasn't run yet.
+         */
+        public void cancel() {
+            synchronized (ExecTimer.this) {
+                if (wheel.get(bucket).remove(this))
+                    ++cancelled;
+            }
+        }
+    }
+
+    private final long tickMs;
+    private final ArrayList<HashSet<Timeout>> wheel;
+    private long tick = 0;
+
+    // Stats
+    private long scheduled = 0;
+    private long fired = 0;
+    private long cancelled = 0;
+
+    /**
+     * Create a timer and start its thread.
+     *
+     * @param tickMs     The length of a tick in milliseconds
+     * @param wheelSize  The number of buckets
+     */
+    public ExecTimer(long tickMs, int wheelSize) {
+        this.tickMs = Math.max(1, tickMs);
+        wheel = new ArrayList<HashSet<Timeout>>(wheelSize);
+        for (int i = 0; i < wheelSize; ++i)
+            wheel.add(new HashSet<Timeout>());
+
+        Thread t = new Thread("exec-timer") {
+                public void run() {
+                    turn();
+                }
+            };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Run a task after delay milliseconds.
+     */
+    public synchronized Timeout schedule(Runnable task, long delay) {
+        long ticks = Math.max(1, (delay + tickMs - 1) / tickMs);
+        int size = wheel.size();
+        int bucket = (int) ((tick + ticks) % size);
+        Timeout t = new Timeout(task, bucket, (ticks - 1) / size);
+        wheel.get(bucket).add(t);
+        ++scheduled;
+        return t;
+    }
+
+    // Run the due tasks once a tick, for ever.
+    private void turn() {
+        long start = System.nanoTime();
+        long n = 0;
+        while (true) {
+            ++n;
+            long sleep = start / 1000000L + n * tickMs - System.nanoTime() / 1000000L;
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            ArrayList<Timeout> due = new ArrayList<Timeout>();
+            synchronized (this) {
+                ++tick;
+                HashSet<Timeout> b = wheel.get((int) (tick % wheel.size()));
+                for (Iterator<Timeout> it = b.iterator(); it.hasNext(); ) {
+                    Timeout t = it.next();
+                    if (t.rounds > 0) {
+                        --t.rounds;
+                    } else {
+                        it.remove();
+                        due.add(t);
+                    }
+                }
+                fired += due.size();
+            }
+
+            for (Timeout t : due) {
+                try {
+                    t.task.run();
+                } catch (Throwable e) {
+                    LOG.error("Exec timeout task failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The timer statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        int npending = 0;
+        for (HashSet<Timeout> b : wheel)
+            npending += b.size();
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("tickMs", tickMs);
+        res.put("pending", npending);
+        res.put("scheduled", scheduled);
+        res.put("fired", fired);
+        res.put("cancelled", cancelled);
+        return res;
+    }
+}
@@ -19,10 +19,15 @@ package org.apache.hcatalog.templeton;
 
 import java.io.IOException;
 import java.net.URI;
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.lang.StringUtils;
@@ -32,19 +37,59 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hcatalog.templeton.tool.TempletonUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
 
 
 /**
  * Run hcat on the local server using the ExecService.  This is
  * the backend of the ddl web service.
+ *
+ * If templeton.hcat.direct-reads is set, the read only calls are
+ * answered from the metastore using MetaStoreReader and hcat is
+ * only run when the metastore can't be used.
+ *
+ * The read only results are kept in the MetadataCache and every
+ * write drops the cached results it changes.
  */
 public class HcatDelegator extends LauncherDelegator {
     private static final Log LOG = LogFactory.getLog(HcatDelegator.class);
+
+    public static final String SINGLE_FLIGHT_NAME = "templeton.ddl.single-flight";
+    public static final String BATCH_MAX_OPS_NAME = "templeton.ddl.batch.max-ops";
+    public static final String STREAMING_NAME = "templeton.ddl.streaming";
+
+    /**
+     * The hcat variable set after each operation of a batch.
+     */
+    public static final String BATCH_MARKER = "templeton.batch.done";
+    private static final Pattern BATCH_MARKER_LINE
+        = Pattern.compile("^" + Pattern.quote(BATCH_MARKER) + "=(\\d+)$");
+
+    // The read only hcat calls that are running now.
+    private static final SingleFlight<ExecBean> readFlight
+        = new SingleFlight<ExecBean>();
+
     private ExecService execService;
+    private MetaStoreReader metaStore;
+    private MetadataCache cache;
+    private long maxWait = -1;
 
     public HcatDelegator(AppConfig appConf, ExecService execService) {
         super(appConf);
         this.execService = execService;
+        this.cache = MetadataCache.getInstance();
+        if (MetaStoreReader.isEnabled(appConf))
+            metaStore = new MetaStoreReader(appConf);
+    }
+
+    /**
+     * How long to wait for a free process slot, negative for the
+     * server default.
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
     }
 
     /**
@@ -64,7 +109,7 @@ public class HcatDelegator extends LauncherDelegator {
             Map<String, String> env = TempletonUtils.hadoopUserEnv(user, cp);
             proxy.addEnv(env);
             proxy.addArgs(args);
-            return execService.run(appConf.clusterHcat(), args, env);
+            return execService.run(user, maxWait, appConf.clusterHcat(), args, env);
         } catch (InterruptedException e) {
             throw new IOException(e);
         } finally {
@@ -105,6 +150,30 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        String format = extended ? "extended" : null;
+        Response res = fromCache(user, db, null, "descDatabase", format);
+        if (res == null) {
+            long gen = cache.generation(db, null);
+            res = descDatabaseUncached(user, db, extended);
+            toCache(res, gen, user, db, null, "descDatabase", format);
+        }
+        return res;
+    }
+
+    // descDatabase without the cache.
+    private Response descDatabaseUncached(String user, String db, boolean extended)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.descDatabase(user, db, extended))
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = "desc database " + db + "; ";
         if (extended)
             exec = "desc database extended " + db + "; ";
@@ -132,6 +201,29 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        Response res = fromCache(user, null, null, "listDatabases", dbPattern);
+        if (res == null) {
+            long gen = cache.generation(null, null);
+            res = listDatabasesUncached(user, dbPattern);
+            toCache(res, gen, user, null, null, "listDatabases", dbPattern);
+        }
+        return res;
+    }
+
+    // listDatabases without the cache.
+    private Response listDatabasesUncached(String user, String dbPattern)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.listDatabases(user, dbPattern))
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = String.format("show databases like '%s';", dbPattern);
         try {
             String res = jsonRun(user, exec);
@@ -163,10 +255,14 @@ public class HcatDelegator extends LauncherDelegator {
                                   makePropertiesStatement(desc.properties));
         exec += ";";
 
-        String res = jsonRun(user, exec, desc.group, desc.permissions);
-        return JsonBuilder.create(res)
-            .put("database", desc.database)
-            .build();
+        try {
+            String res = jsonRun(user, exec, desc.group, desc.permissions);
+            return JsonBuilder.create(res)
+                .put("database", desc.database)
+                .build();
+        } finally {
+            cache.invalidateDatabase(desc.database);
+        }
     }
 
     /**
@@ -186,10 +282,14 @@ public class HcatDelegator extends LauncherDelegator {
             exec += " " + option;
         exec += ";";
 
-        String res = jsonRun(user, exec, group, permissions);
-        return JsonBuilder.create(res)
-            .put("database", db)
-            .build();
+        try {
+            String res = jsonRun(user, exec, group, permissions);
+            return JsonBuilder.create(res)
+                .put("database", db)
+                .build();
+        } finally {
+            cache.invalidateDatabase(db);
+        }
     }
 
     /**
@@ -199,7 +299,7 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        String exec = makeCreateTable(db, desc);
+        String exec = makeCreateTable(db, desc.table, desc);
 
         try {
             String res = jsonRun(user, exec, desc.group, desc.permissions, true);
@@ -211,6 +311,8 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (final HcatException e) {
             throw new HcatException("unable to create table: " + desc.table,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, desc.table);
         }
     }
 
@@ -240,6 +342,8 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (final HcatException e) {
             throw new HcatException("unable to create table: " + desc.newTable,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, desc.newTable);
         }
     }
 
@@ -250,6 +354,32 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        String format = extended ? "extended" : null;
+        Response res = fromCache(user, db, table, "descTable", format);
+        if (res == null) {
+            long gen = cache.generation(db, table);
+            res = descTableUncached(user, db, table, extended);
+            toCache(res, gen, user, db, table, "descTable", format);
+        }
+        return res;
+    }
+
+    // descTable without the cache.
+    private Response descTableUncached(String user, String db, String table, boolean extended)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.descTable(user, db, table, extended))
+                    .put("database", db)
+                    .put("table", table)
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = "use " + db + "; ";
         if (extended)
             exec += "desc extended " + table + "; ";
@@ -275,9 +405,39 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        Response res = fromCache(user, db, null, "listTables", tablePattern);
+        if (res == null) {
+            long gen = cache.generation(db, null);
+            res = listTablesUncached(user, db, tablePattern);
+            toCache(res, gen, user, db, null, "listTables", tablePattern);
+        }
+        return res;
+    }
+
+    // listTables without the cache.
+    private Response listTablesUncached(String user, String db, String tablePattern)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.listTables(user, db, tablePattern))
+                    .put("database", db)
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = String.format("use %s; show tables like '%s';",
                                     db, tablePattern);
         try {
+            if (isStreaming()) {
+                Map<String, Object> extra = new HashMap<String, Object>();
+                extra.put("database", db);
+                return streamRun(user, exec, extra);
+            }
+
             String res = jsonRun(user, exec);
             return JsonBuilder.create(res)
                 .put("database", db)
@@ -295,6 +455,20 @@ public class HcatDelegator extends LauncherDelegator {
     public Response descExtendedTable(String user, String db, String table)
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
+    {
+        Response res = fromCache(user, db, table, "descExtendedTable", null);
+        if (res == null) {
+            long gen = cache.generation(db, table);
+            res = descExtendedTableUncached(user, db, table);
+            toCache(res, gen, user, db, table, "descExtendedTable", null);
+        }
+        return res;
+    }
+
+    // descExtendedTable without the cache.
+    private Response descExtendedTableUncached(String user, String db, String table)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
     {
         String exec = String.format("use %s; show table extended like %s;",
                                     db, table);
@@ -340,7 +514,7 @@ public class HcatDelegator extends LauncherDelegator {
     }
 
     // Make a create table statement
-    private String makeCreateTable(String db, TableDesc desc) {
+    private String makeCreateTable(String db, String table, TableDesc desc) {
         String exec = String.format("use %s; create", db);
 
         if (desc.external)
@@ -348,7 +522,7 @@ public class HcatDelegator extends LauncherDelegator {
         exec += " table";
         if (desc.ifNotExists)
             exec += " if not exists";
-        exec += " " + desc.table;
+        exec += " " + table;
 
         if (TempletonUtils.isset(desc.columns))
             exec += String.format("(%s)", makeCols(desc.columns));
@@ -458,6 +632,56 @@ public class HcatDelegator extends LauncherDelegator {
         return res;
     }
 
+    // Make an add table property statement
+    private String makeAddTableProperty(String db, String table,
+                                        TablePropertyDesc desc)
+    {
+        return String.format("use %s; alter table %s set tblproperties ('%s'='%s');",
+                             db, table, desc.name, desc.value);
+    }
+
+    // Make an add partition statement
+    private String makeAddPartition(String db, String table, PartitionDesc desc) {
+        return makeAddPartitions(db, table, desc.ifNotExists,
+                                 Collections.singletonList(desc));
+    }
+
+    // Make one add partition statement for a list of partitions
+    private String makeAddPartitions(String db, String table, boolean ifNotExists,
+                                     List<PartitionDesc> parts)
+    {
+        StringBuilder exec = new StringBuilder();
+        exec.append(String.format("use %s; alter table %s add", db, table));
+        if (ifNotExists)
+            exec.append(" if not exists");
+        for (PartitionDesc desc : parts) {
+            exec.append(String.format(" partition (%s)", desc.partition));
+            if (TempletonUtils.isset(desc.location))
+                exec.append(String.format(" location '%s'", desc.location));
+        }
+        exec.append(";");
+        return exec.toString();
+    }
+
+    // Make a drop partition statement
+    private String makeDropPartition(String db, String table, DropPartitionDesc desc) {
+        String exec = String.format("use %s; alter table %s drop", db, table);
+        if (desc.ifExists)
+            exec += " if exists";
+        exec += String.format(" partition (%s);", desc.partition);
+        return exec;
+    }
+
+    // Make an add column statement
+    private String makeAddColumn(String db, String table, ColumnDesc desc) {
+        String exec = String.format("use %s; alter table %s add columns (%s %s",
+                                    db, table, desc.name, desc.type);
+        if (TempletonUtils.isset(desc.comment))
+            exec += String.format(" comment '%s'", desc.comment);
+        exec += ");";
+        return exec;
+    }
+
     // Pull out the first table from the "show extended" json.
     private String singleTable(String json, String table)
         throws IOException
@@ -499,6 +723,8 @@ public class HcatDelegator extends LauncherDelegator {
                 .build();
         } catch (HcatException e) {
             throw new HcatException("unable to drop table: " + table, e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, table);
         }
     }
 
@@ -522,6 +748,9 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (HcatException e) {
             throw new HcatException("unable to rename table: " + oldTable,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, oldTable);
+            cache.invalidateTable(db, newTable);
         }
     }
 
@@ -533,10 +762,10 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        Response res = descTable(user, db, table, true);
+        Response res = listTableProperties(user, db, table);
         if (res.getStatus() != JsonBuilder.OK)
             return res;
-        Map props = tableProperties(res.getEntity());
+        Map props = (Map) ((Map) res.getEntity()).get("properties");
         Map found = null;
         if (props != null) {
             String value = (String) props.get(property);
@@ -560,6 +789,33 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        Response res = fromCache(user, db, table, "listTableProperties", null);
+        if (res == null) {
+            long gen = cache.generation(db, table);
+            res = listTablePropertiesUncached(user, db, table);
+            toCache(res, gen, user, db, table, "listTableProperties", null);
+        }
+        return res;
+    }
+
+    // listTableProperties without the cache.  The metastore can
+    // return just the properties, hcat needs the whole extended
+    // description.
+    private Response listTablePropertiesUncached(String user, String db, String table)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.tableProperties(user, db, table))
+                    .put("database", db)
+                    .put("table", table)
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         Response res = descTable(user, db, table, true);
         if (res.getStatus() != JsonBuilder.OK)
             return res;
@@ -579,9 +835,7 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        String exec
-            = String.format("use %s; alter table %s set tblproperties ('%s'='%s');",
-                            db, table, desc.name, desc.value);
+        String exec = makeAddTableProperty(db, table, desc);
         try {
             String res = jsonRun(user, exec, desc.group, desc.permissions, true);
             return JsonBuilder.create(res)
@@ -592,6 +846,8 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (HcatException e) {
             throw new HcatException("unable to add table property: " + table,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, table);
         }
     }
 
@@ -613,9 +869,41 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        Response res = fromCache(user, db, table, "listPartitions", null);
+        if (res == null) {
+            long gen = cache.generation(db, table);
+            res = listPartitionsUncached(user, db, table);
+            toCache(res, gen, user, db, table, "listPartitions", null);
+        }
+        return res;
+    }
+
+    // listPartitions without the cache.
+    private Response listPartitionsUncached(String user, String db, String table)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (metaStore != null) {
+            try {
+                return JsonBuilder.create(metaStore.listPartitions(user, db, table))
+                    .put("database", db)
+                    .put("table", table)
+                    .build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = "use " + db + "; ";
         exec += "show partitions " + table + "; ";
         try {
+            if (isStreaming()) {
+                Map<String, Object> extra = new HashMap<String, Object>();
+                extra.put("database", db);
+                extra.put("table", table);
+                return streamRun(user, exec, extra);
+            }
+
             String res = jsonRun(user, exec);
             return JsonBuilder.create(res)
                 .put("database", db)
@@ -628,13 +916,136 @@ public class HcatDelegator extends LauncherDelegator {
     }
 
     /**
-     * Return a json description of one partition.
+     * Return a page of the partitions that match a filter.  The
+     * filter, such as "ds > '2012-01-01'", is run by the metastore.
+     * The page is written to the client as it is built.
+     *
+     * The metastore reads only up to the end of the page, plus one
+     * name to tell if there is a next page, so the cost grows with
+     * offset + limit rather than with the table.  The total is then
+     * only given for the last page.  A page that ends past 32767
+     * reads every name, since that is the most the metastore call
+     * takes.
+     *
+     * If the direct metastore reads are off, or the metastore can't
+     * be read, hcat lists all the partitions and the page is cut from
+     * its output.  hcat can't run a filter, so a filter needs the
+     * metastore.
+     *
+     * @param filter  The partition filter, or null for all partitions
+     * @param offset  The first partition to return
+     * @param limit   The most partitions to return, or -1 for all
+     */
+    public Response listPartitions(String user, String db, String table,
+                                   String filter, int offset, int limit)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        boolean filtered = TempletonUtils.isset(filter);
+        if (metaStore != null) {
+            try {
+                short max = PartitionListStream.fetchMax(offset, limit);
+                Map res = metaStore.listPartitionNames(user, db, table, filter, max);
+                if (JsonBuilder.isError(res))
+                    return JsonBuilder.create(res)
+                        .put("database", db)
+                        .put("table", table)
+                        .build();
+
+                List<String> names = (List<String>) res.get("partitionNames");
+                int start = PartitionListStream.pageStart(names.size(), offset);
+                int end = PartitionListStream.pageEnd(names.size(), start, limit);
+                boolean complete = max < 0 || names.size() < max;
+                return Response.ok(new PartitionListStream(db, table, names,
+                                                           start, end, complete),
+                                   MediaType.APPLICATION_JSON)
+                    .build();
+            } catch (IOException e) {
+                if (filtered)
+                    throw e;
+                logFallback(e);
+            }
+        }
+
+        if (filtered)
+            return JsonBuilder.createError("A partition filter needs "
+                                           + AppConfig.HCAT_DIRECT_READS_NAME,
+                                           JsonBuilder.BAD_REQUEST)
+                .put("database", db)
+                .put("table", table)
+                .build();
+
+        String exec = "use " + db + "; ";
+        exec += "show partitions " + table + "; ";
+        try {
+            Map res = JsonBuilder.create(jsonRun(user, exec)).getMap();
+            List parts = (List) res.get("partitions");
+            if (JsonBuilder.isError(res) || parts == null)
+                return JsonBuilder.create(res)
+                    .put("database", db)
+                    .put("table", table)
+                    .build();
+
+            int start = PartitionListStream.pageStart(parts.size(), offset);
+            int end = PartitionListStream.pageEnd(parts.size(), start, limit);
+            JsonBuilder jb = JsonBuilder.create()
+                .put("database", db)
+                .put("table", table)
+                .put("offset", start)
+                .put("total", parts.size());
+            if (end < parts.size())
+                jb.put("nextOffset", end);
+            return jb.put("partitions", new ArrayList(parts.subList(start, end)))
+                .build();
+        } catch (HcatException e) {
+            throw new HcatException("unable to show partitions for table: " + table,
+                                    e.execBean, exec);
+        }
+    }
+
+    /**
+     * Return a json description of one partition.  If the direct
+     * metastore reads are on, the partition is read from the
+     * metastore and the file system stats of its location are only
+     * added for the extended format.  Otherwise hcat is run and the
+     * stats are always included.
      */
     public Response descOnePartition(String user, String db, String table,
-                                     String partition)
+                                     String partition, boolean extended)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        String arg = extended ? "extended:" + partition : partition;
+        Response res = fromCache(user, db, table, "descOnePartition", arg);
+        if (res == null) {
+            long gen = cache.generation(db, table);
+            res = descOnePartitionUncached(user, db, table, partition, extended);
+            toCache(res, gen, user, db, table, "descOnePartition", arg);
+        }
+        return res;
+    }
+
+    // descOnePartition without the cache.
+    private Response descOnePartitionUncached(String user, String db, String table,
+                                              String partition, boolean extended)
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
+        if (metaStore != null) {
+            try {
+                Map part = metaStore.descPartition(user, db, table, partition);
+                JsonBuilder jb = JsonBuilder.create(part)
+                    .put("database", db)
+                    .put("table", table)
+                    .put("partition", partition);
+                if (extended && ! JsonBuilder.isError(part))
+                    addFileStats(user, jb, (String) part.get("location"));
+                return jb.build();
+            } catch (IOException e) {
+                logFallback(e);
+            }
+        }
+
         String exec = "use " + db + "; ";
         exec += "show table extended like " + table
             + " partition (" + partition + "); ";
@@ -654,6 +1065,49 @@ public class HcatDelegator extends LauncherDelegator {
         }
     }
 
+    // Add the stats of the files in a location, the same as "show
+    // table extended".  The files are listed as the user.
+    private void addFileStats(String user, JsonBuilder jb, String loc) {
+        if (loc == null)
+            return;
+        final Path path = new Path(loc);
+        try {
+            FileStatus[] files = UgiFactory.getUgi(user).doAs(
+                new PrivilegedExceptionAction<FileStatus[]>() {
+                    public FileStatus[] run() throws Exception {
+                        return path.getFileSystem(appConf).listStatus(path);
+                    }
+                });
+
+            long count = 0;
+            long total = 0;
+            long max = 0;
+            long min = Long.MAX_VALUE;
+            long lastAccess = 0;
+            long lastUpdate = 0;
+            if (files != null) {
+                for (FileStatus f : files) {
+                    if (f.isDir())
+                        continue;
+                    ++count;
+                    total += f.getLen();
+                    max = Math.max(max, f.getLen());
+                    min = Math.min(min, f.getLen());
+                    lastAccess = Math.max(lastAccess, f.getAccessTime());
+                    lastUpdate = Math.max(lastUpdate, f.getModificationTime());
+                }
+            }
+            jb.put("totalNumberFiles", count)
+                .put("totalFileSize", total)
+                .put("maxFileSize", max)
+                .put("minFileSize", (count == 0) ? 0 : min)
+                .put("lastAccessTime", lastAccess)
+                .put("lastUpdateTime", lastUpdate);
+        } catch (Exception e) {
+            LOG.warn(e.getMessage() + " Couldn't get file stats for " + loc);
+        }
+    }
+
     /**
      * Add one partition.
      */
@@ -662,13 +1116,7 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        String exec = String.format("use %s; alter table %s add", db, table);
-        if (desc.ifNotExists)
-            exec += " if not exists";
-        exec += String.format(" partition (%s)", desc.partition);
-        if (TempletonUtils.isset(desc.location))
-            exec += String.format(" location '%s'", desc.location);
-        exec += ";";
+        String exec = makeAddPartition(db, table, desc);
         try {
             String res = jsonRun(user, exec, desc.group, desc.permissions, true);
             if (res.indexOf("AlreadyExistsException") > -1) {
@@ -687,6 +1135,8 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (HcatException e) {
             throw new HcatException("unable to add partition: " + desc,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, table);
         }
     }
 
@@ -699,11 +1149,9 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        String exec = String.format("use %s; alter table %s drop", db, table);
-        if (ifExists)
-            exec += " if exists";
-        exec += String.format(" partition (%s);", partition);
-
+        String exec = makeDropPartition(db, table,
+                                        new DropPartitionDesc(partition, ifExists,
+                                                              group, permissions));
         try {
             String res = jsonRun(user, exec, group, permissions, true);
             return JsonBuilder.create(res)
@@ -714,6 +1162,8 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (HcatException e) {
             throw new HcatException("unable to drop partition: " + partition,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, table);
         }
     }
 
@@ -779,11 +1229,7 @@ public class HcatDelegator extends LauncherDelegator {
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        String exec = String.format("use %s; alter table %s add columns (%s %s",
-                                    db, table, desc.name, desc.type);
-        if (TempletonUtils.isset(desc.comment))
-            exec += String.format(" comment '%s'", desc.comment);
-        exec += ");";
+        String exec = makeAddColumn(db, table, desc);
         try {
             String res = jsonRun(user, exec, desc.group, desc.permissions, true);
             return JsonBuilder.create(res)
@@ -794,7 +1240,383 @@ public class HcatDelegator extends LauncherDelegator {
         } catch (HcatException e) {
             throw new HcatException("unable to add column: " + desc,
                                     e.execBean, exec);
+        } finally {
+            cache.invalidateTable(db, table);
+        }
+    }
+
+    /**
+     * The ETag of a database description, built from the metastore
+     * record.  Null if there is no metastore reader, the cache is off
+     * or the database can't be read, in which case the tag is made
+     * from the result instead.  The version is only looked up when
+     * the cache is on, since it costs a metastore call of its own.
+     *
+     * @param op  The call and its arguments, so that each view of the
+     *            database has its own tag.
+     */
+    public String databaseTag(String user, String db, String op) {
+        if (metaStore == null || ! cache.isEnabled())
+            return null;
+        try {
+            String version = metaStore.databaseVersion(user, db);
+            cache.checkVersion(db, null, op, version);
+            return makeTag(op, version);
+        } catch (IOException e) {
+            LOG.warn("Unable to read the version of database " + db + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * The ETag of a table description, built from the metastore
+     * change markers.  Null if there is no metastore reader, the
+     * cache is off or the table can't be read, the same as
+     * databaseTag.
+     *
+     * @param op  The call and its arguments, so that each view of the
+     *            table has its own tag.
+     */
+    public String tableTag(String user, String db, String table, String op) {
+        if (metaStore == null || ! cache.isEnabled())
+            return null;
+        try {
+            String version = metaStore.tableVersion(user, db, table);
+            cache.checkVersion(db, table, op, version);
+            return makeTag(op, version);
+        } catch (IOException e) {
+            LOG.warn("Unable to read the version of table " + table + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * The ETag of a partition list, built from the table's last ddl
+     * time and its partition names.  Null in the same cases as
+     * databaseTag.
+     */
+    public String partitionsTag(String user, String db, String table, String op) {
+        if (metaStore == null || ! cache.isEnabled())
+            return null;
+        try {
+            String version = metaStore.partitionsVersion(user, db, table);
+            cache.checkVersion(db, table, op, version);
+            return makeTag(op, version);
+        } catch (IOException e) {
+            LOG.warn("Unable to read the partitions version of table " + table
+                     + ": " + e);
+            return null;
+        }
+    }
+
+    private String makeTag(String op, String version) {
+        if (version == null)
+            return null;
+        return op + "-" + version;
+    }
+
+    // Look for a cached result of a read only call.
+    private Response fromCache(String user, String db, String table,
+                               String op, String arg)
+    {
+        Map m = cache.get(user, db, table, op, arg);
+        if (m == null)
+            return null;
+        return JsonBuilder.create(m).build();
+    }
+
+    // Save the result of a read only call, made at the cache
+    // generation gen.  Only successful results are kept.
+    private void toCache(Response res, long gen, String user, String db,
+                         String table, String op, String arg)
+    {
+        if (res.getStatus() == JsonBuilder.OK && res.getEntity() instanceof Map)
+            cache.put(user, db, table, op, arg, (Map) res.getEntity(), gen);
+    }
+
+    /**
+     * Run a list of ddl operations in order, using as few hcat calls
+     * as possible.  Operations in a row with the same group and
+     * permissions are run in one hcat script, at most
+     * templeton.ddl.batch.max-ops at a time.  The script prints a
+     * marker after each operation, so when hcat stops at a failed
+     * operation we know which ones were done.
+     *
+     * If continueOnError is set the operations after a failure are
+     * run in a new script, otherwise they are skipped.  If a later
+     * hcat call can't be run, such as when the server is busy, its
+     * operations fail, the rest are skipped, and the results of the
+     * earlier calls are still returned.
+     */
+    public Response batch(String user, BatchDesc desc)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        return JsonBuilder.create(runBatch(user, desc.operations, desc.continueOnError))
+            .build();
+    }
+
+    /**
+     * Add a list of partitions to a table with one hcat call, or more
+     * for a very long list.  Each call adds its partitions in one
+     * statement, so a failure fails all the partitions of that call.
+     * Returns a result for each partition.
+     */
+    public Response addPartitions(String user, String db, String table,
+                                  PartitionListDesc desc)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        ArrayList<BatchOpDesc> ops = new ArrayList<BatchOpDesc>();
+        for (PartitionDesc part : desc.partitions) {
+            if (part.group == null && part.permissions == null) {
+                // Use the list's group and permissions, on a copy so
+                // the request is left as it was sent.
+                PartitionDesc p = new PartitionDesc();
+                p.partition = part.partition;
+                p.location = part.location;
+                p.ifNotExists = part.ifNotExists;
+                p.group = desc.group;
+                p.permissions = desc.permissions;
+                part = p;
+            }
+            BatchOpDesc op = new BatchOpDesc();
+            op.database = db;
+            op.table = table;
+            op.addPartition = part;
+            ops.add(op);
+        }
+
+        return JsonBuilder.create(runBatch(user, ops, desc.continueOnError))
+            .put("database", db)
+            .put("table", table)
+            .build();
+    }
+
+    /**
+     * Drop a list of partitions from a table with one hcat call, or
+     * more for a very long list.  Returns a result for each partition.
+     */
+    public Response dropPartitions(String user, String db, String table,
+                                   List<String> partitions, boolean ifExists,
+                                   boolean continueOnError,
+                                   String group, String permissions)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        ArrayList<BatchOpDesc> ops = new ArrayList<BatchOpDesc>();
+        for (String part : partitions) {
+            BatchOpDesc op = new BatchOpDesc();
+            op.database = db;
+            op.table = table;
+            op.dropPartition = new DropPartitionDesc(part, ifExists, group, permissions);
+            ops.add(op);
         }
+
+        return JsonBuilder.create(runBatch(user, ops, continueOnError))
+            .put("database", db)
+            .put("table", table)
+            .build();
+    }
+
+    // Run the batch operations and return the results.
+    private Map runBatch(String user, List<BatchOpDesc> ops, boolean continueOnError)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        int n = ops.size();
+        ArrayList<Map> results = new ArrayList<Map>(n);
+        for (int i = 0; i < n; ++i)
+            results.add(makeBatchResult(i, ops.get(i)));
+
+        int maxOps = Math.max(1, appConf.getInt(BATCH_MAX_OPS_NAME, 100));
+        int succeeded = 0;
+        int failed = 0;
+        int start = 0;
+        while (start < n) {
+            int end = batchChunkEnd(ops, start, maxOps);
+            GroupPermissionsDesc gp = ops.get(start).opDesc();
+            ExecBean eb = null;
+            String error = null;
+            try {
+                eb = run(user, makeBatchScript(ops, start, end), true,
+                         gp.group, gp.permissions);
+            } catch (BusyException e) {
+                if (succeeded + failed == 0)
+                    throw e;
+                error = e.getMessage();
+            } catch (IOException e) {
+                if (succeeded + failed == 0)
+                    throw e;
+                error = e.getMessage();
+            } finally {
+                for (int i = start; i < end; ++i)
+                    cache.invalidateTable(ops.get(i).database, ops.get(i).table);
+            }
+
+            if (error != null) {
+                // The hcat call didn't run or didn't finish.  Keep the
+                // results of the earlier calls and skip the rest.
+                for (int i = start; i < end; ++i) {
+                    results.get(i).put("status", "failed");
+                    results.get(i).put("error", error);
+                }
+                failed += end - start;
+                break;
+            }
+
+            int last = lastBatchMarker(eb.stdout, start, end);
+            for (int i = start; i <= last; ++i) {
+                results.get(i).put("status", "ok");
+                ++succeeded;
+            }
+            if (last + 1 == end) {
+                start = end;
+                continue;
+            }
+
+            // The failed statement may cover several operations.
+            String err = batchError(eb);
+            int stmtEnd = batchStatementEnd(ops, last + 1, end);
+            for (int i = last + 1; i < stmtEnd; ++i) {
+                results.get(i).put("status", "failed");
+                results.get(i).put("error", err);
+                ++failed;
+            }
+            if (! continueOnError)
+                break;
+            start = stmtEnd;
+        }
+
+        return JsonBuilder.create()
+            .put("results", results)
+            .put("succeeded", succeeded)
+            .put("failed", failed)
+            .put("skipped", n - succeeded - failed)
+            .getMap();
+    }
+
+    // The result of one batch operation, skipped until it is run.
+    private Map makeBatchResult(int i, BatchOpDesc op) {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("index", i);
+        res.put("op", op.opName());
+        res.put("database", op.database);
+        res.put("table", op.table);
+        if (op.addPartition != null)
+            res.put("partition", op.addPartition.partition);
+        if (op.dropPartition != null)
+            res.put("partition", op.dropPartition.partition);
+        res.put("status", "skipped");
+        return res;
+    }
+
+    // The end of the run of operations, starting at start, that can
+    // share one hcat call.
+    private int batchChunkEnd(List<BatchOpDesc> ops, int start, int maxOps) {
+        GroupPermissionsDesc first = ops.get(start).opDesc();
+        int end = start + 1;
+        while (end < ops.size() && end - start < maxOps) {
+            GroupPermissionsDesc next = ops.get(end).opDesc();
+            if (! (StringUtils.equals(first.group, next.group)
+                   && StringUtils.equals(first.permissions, next.permissions)))
+                break;
+            ++end;
+        }
+        return end;
+    }
+
+    // Make the hcat script for a run of batch operations.  The marker
+    // after a statement has the index of its last operation.
+    private String makeBatchScript(List<BatchOpDesc> ops, int start, int end) {
+        StringBuilder res = new StringBuilder();
+        int i = start;
+        while (i < end) {
+            int next = batchStatementEnd(ops, i, end);
+            res.append(makeBatchStatement(ops, i, next));
+            res.append(String.format(" set %s=%d; set %s; ",
+                                     BATCH_MARKER, next - 1, BATCH_MARKER));
+            i = next;
+        }
+        return res.toString();
+    }
+
+    // The end of the operations, starting at i, that share one
+    // statement: a run of partitions added to the same table with the
+    // same ifNotExists.  Every other operation has its own statement.
+    private int batchStatementEnd(List<BatchOpDesc> ops, int i, int end) {
+        BatchOpDesc first = ops.get(i);
+        int res = i + 1;
+        if (first.addPartition == null)
+            return res;
+        while (res < end) {
+            BatchOpDesc next = ops.get(res);
+            if (next.addPartition == null
+                || ! StringUtils.equals(first.database, next.database)
+                || ! StringUtils.equals(first.table, next.table)
+                || first.addPartition.ifNotExists != next.addPartition.ifNotExists)
+                break;
+            ++res;
+        }
+        return res;
+    }
+
+    // Make the statement for the batch operations from start to end.
+    private String makeBatchStatement(List<BatchOpDesc> ops, int start, int end) {
+        BatchOpDesc op = ops.get(start);
+        if (op.addPartition != null) {
+            ArrayList<PartitionDesc> parts = new ArrayList<PartitionDesc>();
+            for (int i = start; i < end; ++i)
+                parts.add(ops.get(i).addPartition);
+            return makeAddPartitions(op.database, op.table,
+                                     op.addPartition.ifNotExists, parts);
+        }
+        if (op.createTable != null)
+            return makeCreateTable(op.database, op.table, op.createTable);
+        if (op.addProperty != null)
+            return makeAddTableProperty(op.database, op.table, op.addProperty);
+        if (op.addColumn != null)
+            return makeAddColumn(op.database, op.table, op.addColumn);
+        return makeDropPartition(op.database, op.table, op.dropPartition);
+    }
+
+    // The index of the last batch operation that printed its marker,
+    // or start - 1 if none did.
+    private int lastBatchMarker(String stdout, int start, int end) {
+        int last = start - 1;
+        if (stdout == null)
+            return last;
+        for (String line : stdout.split("\n")) {
+            Matcher m = BATCH_MARKER_LINE.matcher(line.trim());
+            if (m.matches()) {
+                int i = Integer.parseInt(m.group(1));
+                if (i >= start && i < end && i > last)
+                    last = i;
+            }
+        }
+        return last;
+    }
+
+    // The error of a failed batch operation: the hcat json error if
+    // there is one, or else stderr.
+    private String batchError(ExecBean eb) {
+        if (eb.stdout != null) {
+            for (String line : eb.stdout.split("\n")) {
+                if (! line.trim().startsWith("{"))
+                    continue;
+                try {
+                    Map m = JsonBuilder.jsonToMap(line);
+                    if (m.get("error") != null)
+                        return m.get("error").toString();
+                } catch (IOException e) {
+                    // Not json, keep looking.
+                }
+            }
+        }
+        if (TempletonUtils.isset(eb.stderr))
+            return eb.stderr.trim();
+        return "hcat exited with " + eb.exitcode;
+    }
+
+    // The metastore couldn't answer, we'll run hcat instead.
+    private void logFallback(IOException e) {
+        LOG.warn("Unable to read from the metastore, running hcat: " + e);
     }
 
     // Check that the hcat result is valid and or has a valid json
@@ -804,7 +1626,8 @@ public class HcatDelegator extends LauncherDelegator {
             return false;
 
         try {
-            Map m = JsonBuilder.jsonToMap(eb.stdout);
+            // Only the top level keys are read here.
+            Map m = JsonBuilder.create(eb.stdout).getMap();
             if (m.containsKey("error")) // This is a valid error message.
                 return true;
         } catch (IOException e) {
@@ -836,13 +1659,124 @@ public class HcatDelegator extends LauncherDelegator {
         return res.stdout;
     }
 
-    // Run an hcat expression and return just the json outout.  No
-    // permissions set.
-    private String jsonRun(String user, String exec)
+    // Run a read only hcat expression and return just the json
+    // output.  No permissions set.  The same expression run by the
+    // same user with the same slot wait at the same time is only run
+    // once, so a caller never gets the busy error of a shorter wait.
+    private String jsonRun(final String user, final String exec)
+        throws HcatException, NotAuthorizedException, BusyException,
+        ExecuteException, IOException
+    {
+        if (! appConf.getBoolean(SINGLE_FLIGHT_NAME, true))
+            return jsonRun(user, exec, null, null);
+
+        String key = user + "\u0000json\u0000" + maxWait + "\u0000" + exec;
+        ExecBean res;
+        try {
+            res = readFlight.run(key,
+                                 new SingleFlight.Call<ExecBean>() {
+                                     public ExecBean run() throws Throwable {
+                                         return HcatDelegator.this.run(user, exec, true,
+                                                                       null, null);
+                                     }
+                                 });
+        } catch (NotAuthorizedException e) {
+            throw e;
+        } catch (BusyException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+
+        if (! isValid(res, false))
+            throw new HcatException("Failure calling hcat: " + exec, res, exec);
+        return res.stdout;
+    }
+
+    // Stream the long read only hcat results to the client?
+    private boolean isStreaming() {
+        return appConf.getBoolean(STREAMING_NAME, false)
+            && execService instanceof ExecServiceImpl;
+    }
+
+    // Run a read only hcat expression and copy its json output to the
+    // client as it is read, with the extra keys added.  An hcat error
+    // printed before any result is returned the same as jsonRun.
+    // The result is not shared with other callers.
+    private Response streamRun(String user, String exec, Map<String, Object> extra)
         throws HcatException, NotAuthorizedException, BusyException,
         ExecuteException, IOException
     {
-        return jsonRun(user, exec, null, null);
+        final SecureProxySupport proxy = new SecureProxySupport();
+        List<String> args = makeArgs(exec, true, null, null);
+        Map<String, String> env;
+        try {
+            proxy.open(user, appConf);
+
+            String cp = makeOverrideClasspath(appConf);
+            env = TempletonUtils.hadoopUserEnv(user, cp);
+            proxy.addEnv(env);
+            proxy.addArgs(args);
+        } catch (InterruptedException e) {
+            proxy.close();
+            throw new IOException(e);
+        } catch (IOException e) {
+            proxy.close();
+            throw e;
+        }
+        StreamingExec proc = ((ExecServiceImpl) execService)
+            .runStreaming(user, maxWait, appConf.clusterHcat(), args, env,
+                          new Runnable() {
+                              public void run() {
+                                  proxy.close();
+                              }
+                          });
+
+        boolean streaming = false;
+        try {
+            JsonParser parser = JsonBuilder.jsonFactory().createJsonParser(proc.getStdout());
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new HcatException("Failure calling hcat: " + exec, proc.finish(), exec);
+
+            JsonToken t = parser.nextToken();
+            if (t == JsonToken.FIELD_NAME && ! "error".equals(parser.getCurrentName())) {
+                streaming = true;
+                return Response.ok(new HcatJsonStream(proc, parser, extra),
+                                   MediaType.APPLICATION_JSON)
+                    .build();
+            }
+
+            // An error or an empty result, small enough to read whole.
+            Map res = (t == JsonToken.END_OBJECT)
+                ? new HashMap()
+                : parser.readValueAs(Map.class);
+            ExecBean eb = proc.finish();
+            if (! res.containsKey("error") && eb.exitcode != 0)
+                throw new HcatException("Failure calling hcat: " + exec, eb, exec);
+
+            JsonBuilder jb = JsonBuilder.create(res);
+            for (Map.Entry<String, Object> e : extra.entrySet())
+                jb.put(e.getKey(), e.getValue());
+            return jb.build();
+        } catch (JsonProcessingException e) {
+            throw new HcatException("Failure calling hcat: " + exec, proc.finish(), exec);
+        } finally {
+            if (! streaming)
+                proc.close();
+        }
+    }
+
+    /**
+     * The stats of the shared read only hcat calls.
+     */
+    public static Map<String, Object> singleFlightStats() {
+        return readFlight.stats();
     }
 
     // Run an hcat expression and return just the json outout.
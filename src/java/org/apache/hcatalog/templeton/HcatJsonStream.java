@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Copy the json output of a running hcat call to the client one token
+ * at a time, adding some top level keys.  The output is never held in
+ * memory as a whole document.
+ *
+ * The parser must be on the first field name of the hcat output.
+ * The response status has already been sent by the time the copy
+ * starts, so an hcat failure part way through closes whatever was
+ * open and adds "error" and "errorCode" keys at the end, so a cut off
+ * result can't pass for a complete one.
+ */
+public class HcatJsonStream implements StreamingOutput {
+    private static final Log LOG = LogFactory.getLog(HcatJsonStream.class);
+    private static final JsonFactory factory = JsonBuilder.jsonFactory();
+
+    private StreamingExec proc;
+    private JsonParser parser;
+    private Map<String, Object> extra;
+
+    /**
+     * @param proc    The running hcat call
+     * @param parser  The parser of its stdout, on the first field name
+     * @param extra   The keys to add, which replace any hcat keys of
+     *                the same name
+     */
+    public HcatJsonStream(StreamingExec proc, JsonParser parser,
+                          Map<String, Object> extra)
+    {
+        this.proc = proc;
+        this.parser = parser;
+        this.extra = extra;
+    }
+
+    // The hcat output could not be read.
+    private static class BrokenOutput extends Exception {
+        BrokenOutput(IOException e) {
+            super(e.getMessage(), e);
+        }
+    }
+
+    public void write(OutputStream out)
+        throws IOException, WebApplicationException
+    {
+        try {
+            proc.start();
+            JsonGenerator gen = factory.createJsonGenerator(out, JsonEncoding.UTF8);
+            gen.writeStartObject();
+            for (Map.Entry<String, Object> e : extra.entrySet()) {
+                gen.writeFieldName(e.getKey());
+                gen.writeObject(e.getValue());
+            }
+
+            // How deep the copy is below the top level object.
+            int depth = 0;
+            JsonToken last = null;
+            String error = null;
+            try {
+                JsonToken t = parser.getCurrentToken();
+                while (t != null) {
+                    if (depth == 0) {
+                        if (t != JsonToken.FIELD_NAME)
+                            break;
+                        if (extra.containsKey(parser.getCurrentName())) {
+                            next();
+                            skipChildren();
+                            t = next();
+                            continue;
+                        }
+                    }
+                    if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY)
+                        ++depth;
+                    else if (t == JsonToken.END_OBJECT || t == JsonToken.END_ARRAY)
+                        --depth;
+                    gen.copyCurrentEvent(parser);
+                    last = t;
+                    t = next();
+                }
+                if (t == null)
+                    error = "hcat output ended early";
+            } catch (BrokenOutput e) {
+                error = "Unable to read the hcat output: " + e.getMessage();
+            }
+
+            ExecBean res = proc.finish();
+            if (proc.isStalled())
+                error = "hcat was killed after its output went unread for too long";
+            else if (res.exitcode != 0)
+                error = "hcat exited with " + res.exitcode;
+
+            if (error != null) {
+                LOG.error(error + " after its output was sent: " + res.stderr);
+                if (last == JsonToken.FIELD_NAME)
+                    gen.writeNull();
+                for (; depth > 0; --depth) {
+                    if (gen.getOutputContext().inArray())
+                        gen.writeEndArray();
+                    else
+                        gen.writeEndObject();
+                }
+                gen.writeStringField("error", error);
+                gen.writeStringField("errorCode", "500");
+            }
+            gen.writeEndObject();
+            gen.flush();
+        } finally {
+            proc.close();
+        }
+    }
+
+    private JsonToken next()
+        throws BrokenOutput
+    {
+        try {
+            return parser.nextToken();
+        } catch (IOException e) {
+            throw new BrokenOutput(e);
+        }
+    }
+
+    private void skipChildren()
+        throws BrokenOutput
+    {
+        try {
+            parser.skipChildren();
+        } catch (IOException e) {
+            throw new BrokenOutput(e);
+        }
+    }
+}
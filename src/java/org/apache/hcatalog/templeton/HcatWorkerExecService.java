@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hcatalog.templeton.tool.HcatWorker;
+import org.apache.hcatalog.templeton.tool.TempletonUtils;
+
+/**
+ * Run hcat commands in a pool of long running HcatWorker processes
+ * instead of starting hcat for every call.  Any other program is run
+ * the same as ExecServiceImpl.
+ *
+ * Each worker runs as one user, with the same environment hcat
+ * would have been run with.  Idle workers are stopped after
+ * templeton.hcat.worker.max-idle-ms, and a worker is replaced after
+ * it has run templeton.hcat.worker.max-statements commands.  A
+ * worker that dies or runs past templeton.exec.timeout is killed and
+ * its command fails, the same as a forked hcat would.
+ *
+ * Workers are not used when Hadoop security is on, since hcat then
+ * needs a fresh delegation token for every call.
+ */
+public class HcatWorkerExecService extends ExecServiceImpl {
+    private static final Log LOG = LogFactory.getLog(HcatWorkerExecService.class);
+
+    public static final String ENABLED_NAME
+        = "templeton.hcat.worker.enabled";
+    public static final String CLASSPATH_NAME
+        = "templeton.hcat.worker.classpath";
+    public static final String MAX_IDLE_NAME
+        = "templeton.hcat.worker.max-idle-ms";
+    public static final String MAX_STATEMENTS_NAME
+        = "templeton.hcat.worker.max-statements";
+    public static final String MAX_IDLE_WORKERS_NAME
+        = "templeton.hcat.worker.max-idle-per-user";
+    public static final String START_TIMEOUT_NAME
+        = "templeton.hcat.worker.start-timeout-ms";
+
+    /**
+     * Are the hcat workers turned on?
+     */
+    public static boolean isEnabled(AppConfig appConf) {
+        return appConf.getBoolean(ENABLED_NAME, false)
+            && ! UserGroupInformation.isSecurityEnabled();
+    }
+
+    // One running worker process.
+    private class Worker {
+        final String key;
+        final Process proc;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final StringBuffer log = new StringBuffer();
+        int statements = 0;
+        long lastUsed = System.currentTimeMillis();
+
+        Worker(String key, Map<String, String> env)
+            throws NotAuthorizedException, IOException
+        {
+            this.key = key;
+            ProcessBuilder pb = new ProcessBuilder(workerCommand());
+            pb.environment().clear();
+            pb.environment().putAll(workerEnv(env));
+            proc = pb.start();
+            in = new DataInputStream(new BufferedInputStream(proc.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(proc.getOutputStream()));
+            drainLog();
+
+            ExecTimer.Timeout kill = killAfter(startTimeout);
+            try {
+                if (in.readInt() != HcatWorker.READY)
+                    throw new IOException("Bad hcat worker handshake");
+            } catch (IOException e) {
+                destroy();
+                throw new IOException("Unable to start hcat worker: " + log, e);
+            } finally {
+                kill.cancel();
+            }
+        }
+
+        // Run one hcat command line.
+        ExecBean call(List<String> args, int timeout)
+            throws IOException
+        {
+            ++statements;
+            ExecTimer.Timeout kill = (timeout > 0) ? killAfter(timeout) : null;
+            try {
+                int maxBytes = appConf.getInt(AppConfig.EXEC_MAX_BYTES_NAME, -1);
+                out.writeInt(maxBytes);
+                HcatWorker.writeArgs(out, args);
+                out.flush();
+
+                ExecBean res = new ExecBean();
+                res.exitcode = in.readInt();
+                if (in.readBoolean())
+                    LOG.info("hcat worker output cut to " + maxBytes + " bytes: " + args);
+                res.stdout = decode(HcatWorker.readBytes(in, maxBytes));
+                res.stderr = decode(HcatWorker.readBytes(in, maxBytes));
+                return res;
+            } finally {
+                if (kill != null)
+                    kill.cancel();
+            }
+        }
+
+        // The worker died or was killed during a call.  Report it the
+        // same way a failed hcat process is reported.
+        ExecBean crashed(IOException e)
+            throws IOException
+        {
+            destroy();
+            ExecBean res = new ExecBean();
+            try {
+                res.exitcode = proc.waitFor();
+            } catch (InterruptedException ie) {
+                res.exitcode = -1;
+            }
+            res.stdout = "";
+            res.stderr = decode(("hcat worker exited: " + e + "\n" + log)
+                                .getBytes(appConf.get(AppConfig.EXEC_ENCODING_NAME)));
+            return res;
+        }
+
+        boolean isAlive() {
+            try {
+                proc.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        void destroy() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+            proc.destroy();
+        }
+
+        ExecTimer.Timeout killAfter(long ms) {
+            return ExecTimer.getInstance().schedule(new Runnable() {
+                    public void run() {
+                        LOG.warn("Killing hcat worker for " + key);
+                        proc.destroy();
+                    }
+                }, ms);
+        }
+
+        // Copy the worker's own logging to our log, keeping the end
+        // of it to report if the worker dies.
+        void drainLog() {
+            Thread t = new Thread("hcat-worker-log") {
+                    public void run() {
+                        try {
+                            BufferedReader r = new BufferedReader(
+                                new InputStreamReader(proc.getErrorStream()));
+                            String line;
+                            while ((line = r.readLine()) != null) {
+                                LOG.debug("hcat worker: " + line);
+                                synchronized (log) {
+                                    log.append(line).append('\n');
+                                    if (log.length() > 4096)
+                                        log.delete(0, log.length() - 4096);
+                                }
+                            }
+                        } catch (IOException e) {
+                            // The worker is gone.
+                        }
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private final Timer timer = new Timer("templeton-hcat-workers", true);
+    private long maxIdle;
+    private int maxStatements;
+    private int maxIdleWorkers;
+    private long startTimeout;
+
+    // The idle workers for each environment, most recently used first.
+    private final HashMap<String, LinkedList<Worker>> idle
+        = new HashMap<String, LinkedList<Worker>>();
+
+    // Stats
+    private long started = 0;
+    private long calls = 0;
+    private long reused = 0;
+    private long recycled = 0;
+    private long expired = 0;
+    private long crashed = 0;
+    private int active = 0;
+
+    protected HcatWorkerExecService() {
+        super();
+        maxIdle = appConf.getLong(MAX_IDLE_NAME, 5L * 60L * 1000L);
+        maxStatements = appConf.getInt(MAX_STATEMENTS_NAME, 500);
+        maxIdleWorkers = appConf.getInt(MAX_IDLE_WORKERS_NAME, 2);
+        startTimeout = appConf.getLong(START_TIMEOUT_NAME, 60L * 1000L);
+
+        long period = Math.max(1000L, maxIdle / 2);
+        timer.schedule(new TimerTask() {
+                public void run() {
+                    stopExpired();
+                }
+            }, period, period);
+    }
+
+    /**
+     * Run hcat in a worker, or any other program the same as
+     * ExecServiceImpl.
+     */
+    public ExecBean runUnlimited(String program, List<String> args,
+                                 Map<String, String> env, int timeout)
+        throws NotAuthorizedException, ExecuteException, IOException
+    {
+        if (! canUseWorker(program, args, env))
+            return super.runUnlimited(program, args, env, timeout);
+
+        String key = new TreeMap<String, String>(env).toString();
+        Worker w = take(key);
+        if (w == null)
+            w = start(key, env);
+
+        LOG.info("Running in hcat worker: " + args);
+        ExecBean res;
+        boolean ok = false;
+        try {
+            res = w.call(args, timeout);
+            ok = true;
+        } catch (IOException e) {
+            LOG.warn("hcat worker for " + key + " failed: " + e);
+            res = w.crashed(e);
+        } finally {
+            giveBack(w, ok);
+        }
+
+        return res;
+    }
+
+    /**
+     * Run hcat in a worker, which returns the whole output at once,
+     * or start any other program the same as ExecServiceImpl.
+     */
+    public StreamingExec runStreaming(String user, long wait, String program,
+                                      List<String> args, Map<String, String> env,
+                                      Runnable cleanup)
+        throws NotAuthorizedException, BusyException, ExecuteException, IOException
+    {
+        if (! canUseWorker(program, args, env))
+            return super.runStreaming(user, wait, program, args, env, cleanup);
+
+        try {
+            return new StreamingExec(run(user, wait, program, args, env),
+                                     appConf.get(AppConfig.EXEC_ENCODING_NAME));
+        } finally {
+            if (cleanup != null)
+                cleanup.run();
+        }
+    }
+
+    /**
+     * The worker pool statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        int nidle = 0;
+        for (LinkedList<Worker> l : idle.values())
+            nidle += l.size();
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("idle", nidle);
+        res.put("active", active);
+        res.put("started", started);
+        res.put("calls", calls);
+        res.put("reused", reused);
+        res.put("recycled", recycled);
+        res.put("expired", expired);
+        res.put("crashed", crashed);
+        return res;
+    }
+
+    // Only plain hcat ddl calls, as made by HcatDelegator, can be
+    // sent to a worker.
+    private boolean canUseWorker(String program, List<String> args,
+                                 Map<String, String> env)
+    {
+        if (program == null || ! program.equals(appConf.clusterHcat()))
+            return false;
+        if (env == null || env.containsKey(UserGroupInformation.HADOOP_TOKEN_FILE_LOCATION))
+            return false;
+        if (args == null || args.size() % 2 != 0)
+            return false;
+        for (int i = 0; i < args.size(); i += 2) {
+            String flag = args.get(i);
+            if (! (flag.equals("-e") || flag.equals("-g")
+                   || flag.equals("-p") || flag.equals("-D")))
+                return false;
+        }
+        return true;
+    }
+
+    private synchronized Worker take(String key) {
+        ++calls;
+        ++active;
+        LinkedList<Worker> l = idle.get(key);
+        while (l != null && ! l.isEmpty()) {
+            Worker w = l.removeFirst();
+            if (w.isAlive()) {
+                ++reused;
+                return w;
+            }
+            ++crashed;
+        }
+        return null;
+    }
+
+    private Worker start(String key, Map<String, String> env)
+        throws NotAuthorizedException, IOException
+    {
+        boolean ok = false;
+        try {
+            Worker w = new Worker(key, env);
+            ok = true;
+            return w;
+        } finally {
+            synchronized (this) {
+                if (ok)
+                    ++started;
+                else
+                    --active;
+            }
+        }
+    }
+
+    private void giveBack(Worker w, boolean ok) {
+        synchronized (this) {
+            --active;
+            if (! ok)
+                ++crashed;
+            else if (w.statements >= maxStatements)
+                ++recycled;
+            else {
+                LinkedList<Worker> l = idle.get(w.key);
+                if (l == null) {
+                    l = new LinkedList<Worker>();
+                    idle.put(w.key, l);
+                }
+                if (l.size() < maxIdleWorkers) {
+                    w.lastUsed = System.currentTimeMillis();
+                    l.addFirst(w);
+                    return;
+                }
+            }
+        }
+        w.destroy();
+    }
+
+    /**
+     * Stop the workers that have been idle too long.
+     */
+    public void stopExpired() {
+        ArrayList<Worker> stop = new ArrayList<Worker>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, LinkedList<Worker>>> it
+                = idle.entrySet().iterator();
+            while (it.hasNext()) {
+                LinkedList<Worker> l = it.next().getValue();
+                Iterator<Worker> wit = l.iterator();
+                while (wit.hasNext()) {
+                    Worker w = wit.next();
+                    if (now - w.lastUsed >= maxIdle) {
+                        wit.remove();
+                        stop.add(w);
+                        ++expired;
+                    }
+                }
+                if (l.isEmpty())
+                    it.remove();
+            }
+        }
+        for (Worker w : stop)
+            w.destroy();
+    }
+
+    // Start the worker with hadoop, using the hcat classpath.
+    private List<String> workerCommand()
+        throws NotAuthorizedException, IOException
+    {
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(validateProgram(appConf.clusterHadoop()));
+        cmd.add("jar");
+        cmd.add(appConf.templetonJar());
+        cmd.add(HcatWorker.class.getName());
+        return cmd;
+    }
+
+    private Map<String, String> workerEnv(Map<String, String> env) {
+        Map<String, String> res = execEnv(env);
+        String cp = appConf.get(CLASSPATH_NAME);
+        if (TempletonUtils.isset(cp)) {
+            String cur = res.get("HADOOP_CLASSPATH");
+            if (TempletonUtils.isset(cur))
+                cp = cur + ":" + cp;
+            res.put("HADOOP_CLASSPATH", cp);
+        }
+        return res;
+    }
+
+    // Decode the output of a call, keeping only the first
+    // templeton.exec.max-output-bytes bytes the same as a forked hcat.
+    // The worker already stops there; this also covers the report of
+    // a crashed worker.
+    private String decode(byte[] buf)
+        throws IOException
+    {
+        int nbytes = appConf.getInt(AppConfig.EXEC_MAX_BYTES_NAME, -1);
+        int len = (nbytes < 0) ? buf.length : Math.min(nbytes, buf.length);
+        return new String(buf, 0, len, appConf.get(AppConfig.EXEC_ENCODING_NAME));
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobProfile;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.TempletonJobTracker;
+
+/**
+ * A snapshot of the status of every job, taken by one getAllJobs()
+ * call to the Job Tracker every templeton.jobstatus.snapshot.interval-ms.
+ * This is a singleton service.
+ *
+ * The queue requests answer from the snapshot when it is no older
+ * than the maxStaleness they ask for, so the Job Tracker load does
+ * not grow with the number of clients polling.  A job that is not in
+ * a fresh enough snapshot is asked for directly.  Job profiles do not
+ * change, so each is fetched once and kept while the job is in the
+ * snapshot.
+ *
+ * The poller starts with the first request.  An interval of 0 turns
+ * the snapshot off.
+ */
+public class JobStatusSnapshot {
+    private static final Log LOG = LogFactory.getLog(JobStatusSnapshot.class);
+
+    public static final String INTERVAL_NAME
+        = "templeton.jobstatus.snapshot.interval-ms";
+    public static final String MAX_STALENESS_NAME
+        = "templeton.jobstatus.snapshot.max-staleness-ms";
+
+    private static volatile JobStatusSnapshot theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized JobStatusSnapshot getInstance() {
+        if (theSingleton == null)
+            theSingleton = new JobStatusSnapshot(Main.getAppConfigInstance());
+        return theSingleton;
+    }
+
+    // The jobs from one getAllJobs() call.  Never changed once made.
+    private static class Snapshot {
+        long taken;
+        JobStatus[] jobs;
+        HashMap<String, JobStatus> byId = new HashMap<String, JobStatus>();
+
+        Snapshot(long taken, JobStatus[] jobs) {
+            this.taken = taken;
+            this.jobs = jobs;
+            for (JobStatus job : jobs)
+                byId.put(job.getJobID().toString(), job);
+        }
+    }
+
+    private long interval;
+    private long defaultMaxStaleness;
+    private Timer poller = null;
+    private volatile Snapshot current = null;
+
+    // The profiles of the jobs in the snapshot.
+    private final HashMap<String, JobProfile> profiles
+        = new HashMap<String, JobProfile>();
+
+    // Stats
+    private long polls = 0;
+    private long pollErrors = 0;
+    private long lastPollMs = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long profileFetches = 0;
+
+    private JobStatusSnapshot(AppConfig appConf) {
+        interval = appConf.getLong(INTERVAL_NAME, 5000L);
+        defaultMaxStaleness = appConf.getLong(MAX_STALENESS_NAME, 2 * interval);
+    }
+
+    /**
+     * The status of the job, if it is in a snapshot no older than
+     * maxStaleness milliseconds.
+     *
+     * @param maxStaleness  The oldest snapshot to use, or null for the default
+     * @return The status, or null if the job must be asked for directly.
+     */
+    public JobStatus getStatus(JobID jobid, Long maxStaleness) {
+        Snapshot snap = fresh(maxStaleness);
+        JobStatus res = (snap == null) ? null : snap.byId.get(jobid.toString());
+        counted(res != null);
+        return res;
+    }
+
+    /**
+     * The status of every job, if the snapshot is no older than
+     * maxStaleness milliseconds.
+     *
+     * @param maxStaleness  The oldest snapshot to use, or null for the default
+     * @return The jobs, or null if they must be asked for directly.
+     */
+    public JobStatus[] getAllJobs(Long maxStaleness) {
+        Snapshot snap = fresh(maxStaleness);
+        counted(snap != null);
+        return (snap == null) ? null : snap.jobs;
+    }
+
+    /**
+     * The profile of a job in the snapshot, fetched from the Job
+     * Tracker the first time it is asked for.
+     *
+     * @return The profile, or null if the job must be asked for directly.
+     */
+    public JobProfile getProfile(JobID jobid) {
+        String id = jobid.toString();
+        synchronized (this) {
+            JobProfile profile = profiles.get(id);
+            if (profile != null)
+                return profile;
+        }
+
+        JobTrackerPool pool = JobTrackerPool.getInstance();
+        TempletonJobTracker tracker = null;
+        JobProfile profile = null;
+        try {
+            tracker = pool.borrow(null);
+            profile = tracker.getJobProfile(jobid);
+        } catch (IOException e) {
+            LOG.warn("Unable to fetch the profile of " + id + ": " + e);
+        } finally {
+            pool.release(tracker);
+        }
+
+        synchronized (this) {
+            ++profileFetches;
+            Snapshot snap = current;
+            if (profile != null && snap != null && snap.byId.containsKey(id))
+                profiles.put(id, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Take a new snapshot.
+     */
+    public void poll() {
+        long start = System.currentTimeMillis();
+        JobTrackerPool pool = JobTrackerPool.getInstance();
+        TempletonJobTracker tracker = null;
+        JobStatus[] jobs = null;
+        try {
+            tracker = pool.borrow(null);
+            jobs = tracker.getAllJobs();
+        } catch (Exception e) {
+            LOG.warn("Unable to take a job status snapshot: " + e);
+        } finally {
+            pool.release(tracker);
+        }
+
+        Snapshot snap = (jobs == null) ? null : new Snapshot(start, jobs);
+        synchronized (this) {
+            ++polls;
+            lastPollMs = System.currentTimeMillis() - start;
+            if (snap == null) {
+                ++pollErrors;   // Keep the old one, it will go stale.
+                return;
+            }
+            current = snap;
+            Iterator<String> it = profiles.keySet().iterator();
+            while (it.hasNext())
+                if (!snap.byId.containsKey(it.next()))
+                    it.remove();
+        }
+    }
+
+    /**
+     * The snapshot statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        Snapshot snap = current;
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("intervalMs", interval);
+        res.put("running", poller != null);
+        res.put("jobs", (snap == null) ? 0 : snap.jobs.length);
+        res.put("ageMs", (snap == null)
+                ? -1 : System.currentTimeMillis() - snap.taken);
+        res.put("polls", polls);
+        res.put("pollErrors", pollErrors);
+        res.put("lastPollMs", lastPollMs);
+        res.put("hits", hits);
+        res.put("misses", misses);
+        res.put("profiles", profiles.size());
+        res.put("profileFetches", profileFetches);
+        return res;
+    }
+
+    // The current snapshot, if it is fresh enough.
+    private Snapshot fresh(Long maxStaleness) {
+        if (interval <= 0)
+            return null;
+        startPoller();
+        long max = (maxStaleness == null) ? defaultMaxStaleness : maxStaleness;
+        Snapshot snap = current;
+        if (snap == null || System.currentTimeMillis() - snap.taken > max)
+            return null;
+        return snap;
+    }
+
+    private synchronized void startPoller() {
+        if (poller != null)
+            return;
+        poller = new Timer("templeton-jobstatus-snapshot", true);
+        poller.schedule(new TimerTask() {
+                public void run() {
+                    poll();
+                }
+            }, 0, interval);
+    }
+
+    private synchronized void counted(boolean hit) {
+        if (hit)
+            ++hits;
+        else
+            ++misses;
+    }
+}
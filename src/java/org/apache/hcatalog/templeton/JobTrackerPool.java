@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.mapred.JobTracker;
+import org.apache.hadoop.mapred.TempletonJobTracker;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * Shared Job Tracker proxies, one per user.  This is a singleton
+ * service.
+ *
+ * A proxy is safe to use from many threads at once, so a user's
+ * requests all share one proxy, and with it the user's RPC
+ * connection.  At most templeton.jobtracker.pool.max-users proxies
+ * are kept, the least recently used is closed first, and a proxy
+ * that has not been used for templeton.jobtracker.pool.max-idle-ms
+ * is closed.
+ *
+ * A call that fails without an answer from the Job Tracker retires
+ * the proxy, so the next request opens a new one.  A proxy still in
+ * use when it is retired is closed once the last request releases
+ * it.
+ *
+ * A null user is the Templeton server itself.
+ */
+public class JobTrackerPool implements TempletonJobTracker.CallListener {
+    private static final Log LOG = LogFactory.getLog(JobTrackerPool.class);
+
+    public static final String MAX_USERS_NAME
+        = "templeton.jobtracker.pool.max-users";
+    public static final String MAX_IDLE_NAME
+        = "templeton.jobtracker.pool.max-idle-ms";
+
+    // The key used for the proxy of the server itself.
+    private static final String SERVER_KEY = "";
+
+    // The upper bounds, in milliseconds, of the call time histogram.
+    private static final long[] CALL_BUCKETS = {1, 10, 100, 1000, 10000};
+
+    private static volatile JobTrackerPool theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized JobTrackerPool getInstance() {
+        if (theSingleton == null)
+            theSingleton = new JobTrackerPool(Main.getAppConfigInstance());
+        return theSingleton;
+    }
+
+    // A proxy, how many requests are using it, and when it was last
+    // released.
+    private static class Entry {
+        String user;
+        TempletonJobTracker tracker;
+        int users = 0;
+        long lastUsed;
+        boolean retired = false;
+
+        Entry(String user, TempletonJobTracker tracker) {
+            this.user = user;
+            this.tracker = tracker;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private AppConfig appConf;
+    private int maxUsers;
+    private long maxIdle;
+
+    // The live proxies, least recently used first.
+    private final LinkedHashMap<String, Entry> byUser
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // Every proxy handed out and not yet closed, live or retired.
+    private final IdentityHashMap<TempletonJobTracker, Entry> byTracker
+        = new IdentityHashMap<TempletonJobTracker, Entry>();
+
+    // Stats
+    private long created = 0;
+    private long borrowed = 0;
+    private long reused = 0;
+    private long evicted = 0;
+    private long expired = 0;
+    private long broken = 0;
+    private long calls = 0;
+    private long callErrors = 0;
+    private long callNanos = 0;
+    private final long[] callHistogram = new long[CALL_BUCKETS.length + 1];
+
+    private JobTrackerPool(AppConfig appConf) {
+        this.appConf = appConf;
+        maxUsers = Math.max(1, appConf.getInt(MAX_USERS_NAME, 100));
+        maxIdle = appConf.getLong(MAX_IDLE_NAME, 10L * 60L * 1000L);
+
+        Timer reaper = new Timer("templeton-jobtracker-pool-reaper", true);
+        long period = Math.max(1000L, maxIdle / 2);
+        reaper.schedule(new TimerTask() {
+                public void run() {
+                    evictExpired();
+                }
+            }, period, period);
+    }
+
+    /**
+     * Get the Job Tracker proxy for the user, opening one if needed.
+     * The proxy must be given back with release(), and must not be
+     * closed by the caller.
+     *
+     * @param user   The user to talk to the Job Tracker as, or null for the server.
+     */
+    public TempletonJobTracker borrow(String user)
+        throws IOException
+    {
+        String key = (user == null) ? SERVER_KEY : user;
+        synchronized (this) {
+            ++borrowed;
+            Entry e = byUser.get(key);
+            if (e != null) {
+                ++reused;
+                ++e.users;
+                return e.tracker;
+            }
+        }
+
+        UserGroupInformation ugi = (user == null)
+            ? UserGroupInformation.getLoginUser()
+            : UserGroupInformation.createRemoteUser(user);
+        TempletonJobTracker tracker
+            = new TempletonJobTracker(ugi, JobTracker.getAddress(appConf),
+                                      appConf, this);
+
+        List<Entry> toClose = new ArrayList<Entry>();
+        TempletonJobTracker res;
+        synchronized (this) {
+            ++created;
+            Entry e = byUser.get(key);
+            if (e != null) {
+                // Another request opened one first, use that.
+                toClose.add(new Entry(key, tracker));
+            } else {
+                e = new Entry(key, tracker);
+                byUser.put(key, e);
+                byTracker.put(tracker, e);
+                evictOverflow(toClose);
+            }
+            ++e.users;
+            res = e.tracker;
+        }
+
+        close(toClose);
+        return res;
+    }
+
+    /**
+     * Give a proxy back to the pool.
+     *
+     * @param tracker The proxy from borrow()
+     */
+    public void release(TempletonJobTracker tracker) {
+        if (tracker == null)
+            return;
+        synchronized (this) {
+            Entry e = byTracker.get(tracker);
+            if (e == null) {
+                LOG.warn("Bug: releasing an unknown Job Tracker proxy");
+                return;
+            }
+            --e.users;
+            e.lastUsed = System.currentTimeMillis();
+            if (!e.retired || e.users > 0)
+                return;
+            byTracker.remove(tracker);
+        }
+        tracker.close();
+    }
+
+    /**
+     * Time every call, and retire a proxy whose call failed without
+     * an answer from the Job Tracker.
+     */
+    public void called(TempletonJobTracker tracker, long nanos, IOException error) {
+        synchronized (this) {
+            ++calls;
+            callNanos += nanos;
+            long ms = nanos / 1000000L;
+            int i = 0;
+            while (i < CALL_BUCKETS.length && ms >= CALL_BUCKETS[i])
+                ++i;
+            ++callHistogram[i];
+
+            if (error == null)
+                return;
+            ++callErrors;
+            if (error instanceof RemoteException)
+                return;     // The Job Tracker answered, the proxy is fine.
+
+            Entry e = byTracker.get(tracker);
+            if (e == null || e.retired)
+                return;
+            ++broken;
+            e.retired = true;
+            byUser.remove(e.user);
+        }
+        LOG.info("Retiring the Job Tracker proxy after an error: " + error);
+    }
+
+    /**
+     * Close all the proxies that have not been used for too long.
+     */
+    public void evictExpired() {
+        List<Entry> toClose = new ArrayList<Entry>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> it = byUser.values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                if (e.users == 0 && now - e.lastUsed >= maxIdle) {
+                    it.remove();
+                    byTracker.remove(e.tracker);
+                    toClose.add(e);
+                    ++expired;
+                }
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * The pool statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        int active = 0;
+        for (Entry e : byTracker.values())
+            if (e.users > 0)
+                ++active;
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("users", byUser.size());
+        res.put("active", active);
+        res.put("retired", byTracker.size() - byUser.size());
+        res.put("created", created);
+        res.put("borrowed", borrowed);
+        res.put("reused", reused);
+        res.put("evicted", evicted);
+        res.put("expired", expired);
+        res.put("broken", broken);
+        res.put("calls", calls);
+        res.put("callErrors", callErrors);
+        res.put("callMeanMs", calls == 0 ? 0.0 : callNanos / 1000000.0 / calls);
+
+        LinkedHashMap<String, Long> hist = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < CALL_BUCKETS.length; ++i)
+            hist.put("<" + CALL_BUCKETS[i] + "ms", callHistogram[i]);
+        hist.put(">=" + CALL_BUCKETS[CALL_BUCKETS.length - 1] + "ms",
+                 callHistogram[CALL_BUCKETS.length]);
+        res.put("callTime", hist);
+        return res;
+    }
+
+    // Drop the least recently used proxies over the limit.  Those in
+    // use are retired and closed on their last release.
+    private void evictOverflow(List<Entry> toClose) {
+        Iterator<Entry> it = byUser.values().iterator();
+        while (byUser.size() > maxUsers && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            ++evicted;
+            if (e.users == 0) {
+                byTracker.remove(e.tracker);
+                toClose.add(e);
+            } else
+                e.retired = true;
+        }
+    }
+
+    private void close(List<Entry> entries) {
+        for (Entry e : entries) {
+            try {
+                e.tracker.close();
+            } catch (Exception ex) {
+                LOG.warn("Unable to close the Job Tracker proxy for " + e.user, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hcatalog.templeton.tool.JobState;
+import org.apache.hcatalog.templeton.tool.TempletonStorage;
+
+/**
+ * Tells waiters when the progress of a job changes, that is when its
+ * watch token differs from the one they last saw.  This is a
+ * singleton service.
+ *
+ * The job fields are watched in the storage when it can, as
+ * ZooKeeper can.  Otherwise, as with HDFS, the jobs are checked every
+ * templeton.queue.watch.poll-ms.  All the storage calls are made on
+ * one thread, with one storage connection kept open, so a job has
+ * one watch however many requests wait on it.
+ */
+public class JobWatchService {
+    private static final Log LOG = LogFactory.getLog(JobWatchService.class);
+
+    public static final String POLL_NAME = "templeton.queue.watch.poll-ms";
+
+    private static volatile JobWatchService theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized JobWatchService getInstance() {
+        if (theSingleton == null)
+            theSingleton = new JobWatchService(Main.getAppConfigInstance());
+        return theSingleton;
+    }
+
+    // A listener and the token it last saw.
+    private static class Waiter {
+        String token;
+        Runnable listener;
+
+        Waiter(String token, Runnable listener) {
+            this.token = token;
+            this.listener = listener;
+        }
+    }
+
+    // The waiters on one job.  Run by the storage when the job may
+    // have changed.
+    private class Watched implements Runnable {
+        String id;
+        ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+        boolean polled = false;
+
+        Watched(String id) {
+            this.id = id;
+        }
+
+        public void run() {
+            checkSoon(id);
+        }
+    }
+
+    private AppConfig appConf;
+    private Timer timer;
+
+    // Only used on the timer thread.
+    private TempletonStorage storage = null;
+    private boolean canWatch = false;
+
+    private final HashMap<String, Watched> jobs = new HashMap<String, Watched>();
+
+    // Stats
+    private long watches = 0;
+    private long wakes = 0;
+    private long cancels = 0;
+    private long checks = 0;
+    private long reopens = 0;
+
+    private JobWatchService(AppConfig appConf) {
+        this.appConf = appConf;
+        long poll = Math.max(100L, appConf.getLong(POLL_NAME, 2000L));
+
+        timer = new Timer("templeton-queue-watch", true);
+        timer.schedule(new TimerTask() {
+                public void run() {
+                    for (String id : polledJobs())
+                        check(id);
+                }
+            }, poll, poll);
+    }
+
+    /**
+     * Run the listener once, when the watch token of the job differs
+     * from the given one.  That may be right away.  The listener is
+     * run on the watch thread and must not block.
+     *
+     * @param id       The job id
+     * @param token    The watch token the caller last saw
+     * @param listener Run when the job changes
+     */
+    public void watch(String id, String token, Runnable listener) {
+        synchronized (this) {
+            Watched w = jobs.get(id);
+            if (w == null) {
+                w = new Watched(id);
+                jobs.put(id, w);
+            }
+            w.waiters.add(new Waiter(token, listener));
+            ++watches;
+        }
+        checkSoon(id);
+    }
+
+    /**
+     * Stop waiting.  The listener will not be run after this returns,
+     * unless it is already running.
+     */
+    public synchronized void cancel(String id, Runnable listener) {
+        Watched w = jobs.get(id);
+        if (w == null)
+            return;
+        Iterator<Waiter> it = w.waiters.iterator();
+        while (it.hasNext()) {
+            if (it.next().listener == listener) {
+                it.remove();
+                ++cancels;
+            }
+        }
+        if (w.waiters.isEmpty())
+            jobs.remove(id);
+    }
+
+    /**
+     * The watch statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        int nwaiters = 0;
+        int npolled = 0;
+        for (Watched w : jobs.values()) {
+            nwaiters += w.waiters.size();
+            if (w.polled)
+                ++npolled;
+        }
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("jobs", jobs.size());
+        res.put("waiters", nwaiters);
+        res.put("polledJobs", npolled);
+        res.put("watches", watches);
+        res.put("wakes", wakes);
+        res.put("cancels", cancels);
+        res.put("checks", checks);
+        res.put("reopens", reopens);
+        return res;
+    }
+
+    private void checkSoon(final String id) {
+        timer.schedule(new TimerTask() {
+                public void run() {
+                    check(id);
+                }
+            }, 0);
+    }
+
+    private synchronized List<String> polledJobs() {
+        ArrayList<String> res = new ArrayList<String>();
+        for (Watched w : jobs.values())
+            if (w.polled)
+                res.add(w.id);
+        return res;
+    }
+
+    // Re-arm the watch on the job, then wake the waiters whose token
+    // is out of date.  Arming first means a change made while the
+    // token is read is not missed.  Runs on the timer thread.
+    private void check(String id) {
+        Watched w;
+        synchronized (this) {
+            w = jobs.get(id);
+            if (w == null)
+                return;
+            ++checks;
+        }
+
+        boolean watching = false;
+        String current = null;
+        try {
+            watching = arm(w);
+            current = new JobState(id, appConf, storage).getWatchToken();
+        } catch (Throwable e) {
+            LOG.warn("Unable to check job " + id + ": " + e);
+            closeStorage();
+        }
+
+        ArrayList<Runnable> wake = new ArrayList<Runnable>();
+        synchronized (this) {
+            w.polled = !watching;
+            if (current != null) {
+                Iterator<Waiter> it = w.waiters.iterator();
+                while (it.hasNext()) {
+                    Waiter waiter = it.next();
+                    if (! current.equals(waiter.token)) {
+                        it.remove();
+                        wake.add(waiter.listener);
+                    }
+                }
+            }
+            if (w.waiters.isEmpty() && jobs.get(id) == w)
+                jobs.remove(id);
+            wakes += wake.size();
+        }
+
+        for (Runnable r : wake) {
+            try {
+                r.run();
+            } catch (Throwable e) {
+                LOG.error("Job watch listener failed", e);
+            }
+        }
+    }
+
+    // Watch the job fields, reopening the storage once if a storage
+    // that could watch no longer can, as when a ZooKeeper session
+    // expires.
+    private boolean arm(Watched w)
+        throws IOException
+    {
+        if (storage == null)
+            storage = JobState.getStorage(appConf);
+        if (storage.watchFields(TempletonStorage.Type.JOB, w.id,
+                                JobState.watchFields(), w)) {
+            canWatch = true;
+            return true;
+        }
+        if (! canWatch)
+            return false;
+
+        closeStorage();
+        synchronized (this) {
+            ++reopens;
+        }
+        storage = JobState.getStorage(appConf);
+        return storage.watchFields(TempletonStorage.Type.JOB, w.id,
+                                   JobState.watchFields(), w);
+    }
+
+    private void closeStorage() {
+        if (storage == null)
+            return;
+        try {
+            storage.closeStorage();
+        } catch (IOException e) {
+            LOG.info("Couldn't close the job watch storage: " + e.getMessage());
+        }
+        storage = null;
+    }
+}
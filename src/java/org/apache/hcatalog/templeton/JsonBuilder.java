@@ -17,32 +17,51 @@
  */
 package org.apache.hcatalog.templeton;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hcatalog.templeton.tool.TempletonUtils;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
  * Helper class to build new json objects with new top level
  * properties.  Only add non-null entries.
+ *
+ * An object built from json text is a SplicedJson, which copies the
+ * text through unchanged unless its contents are looked at.
  */
 public class JsonBuilder {
     static final int OK = 200;
+    static final int BAD_REQUEST = 400;
     static final int MISSING = 404;
     static final int SERVER_ERROR = 500;
 
+    // Shared by every thread, since the mapper is thread safe once
+    // configured and costly to create.
+    private static final ObjectMapper mapper = new ObjectMapper();
+
     // The map we're building.
     private Map map;
 
-    // Parse the json map.
+    // Read the json map.
     private JsonBuilder(String json)
         throws IOException
     {
-        map = jsonToMap(json);
+        if (TempletonUtils.isset(json))
+            map = new SplicedJson(json);
+        else
+            map = new HashMap<String, Object>();
+    }
+
+    // Use an existing map.
+    private JsonBuilder(Map map) {
+        this.map = map;
     }
 
     /**
@@ -54,13 +73,21 @@ public class JsonBuilder {
         return new JsonBuilder(json);
     }
 
+    /**
+     * Create a new map object from an existing map.  The map is
+     * used in place, not copied.
+     */
+    public static JsonBuilder create(Map map) {
+        return new JsonBuilder(map);
+    }
+
     /**
      * Create a new map object.
      */
     public static JsonBuilder create()
         throws IOException
     {
-        return new JsonBuilder(null);
+        return new JsonBuilder((String) null);
     }
 
     /**
@@ -69,7 +96,7 @@ public class JsonBuilder {
     public static JsonBuilder createError(String msg, int code)
         throws IOException
     {
-        return new JsonBuilder(null)
+        return new JsonBuilder((String) null)
             .put("error", msg)
             .put("errorCode", code);
     }
@@ -143,6 +170,56 @@ public class JsonBuilder {
             .build();
     }
 
+    /**
+     * Answer a conditional request.  Returns a 304 Not Modified
+     * response if the request's If-None-Match matches the etag, or
+     * null if the request should be run.
+     */
+    public static Response notModified(Request request, String etag) {
+        if (request == null || etag == null)
+            return null;
+        Response.ResponseBuilder res
+            = request.evaluatePreconditions(new EntityTag(etag));
+        return (res == null) ? null : res.tag(new EntityTag(etag)).build();
+    }
+
+    /**
+     * Add an etag to a successful response.  The response may come
+     * from the metadata cache, so the tag is added to the built
+     * response rather than to the map.
+     */
+    public static Response withTag(Response res, String etag) {
+        if (etag == null || res.getStatus() != OK)
+            return res;
+        return Response.fromResponse(res).tag(new EntityTag(etag)).build();
+    }
+
+    /**
+     * Add an etag to a successful response, or answer the
+     * conditional request with a 304 if it matches.  With no etag,
+     * one is made from a digest of the json result, so an unchanged
+     * result is not sent again even without a metastore version.
+     * A streamed result gets no tag.
+     *
+     * @param op  The call and its arguments, for the digest tag
+     */
+    public static Response withTag(Request request, Response res, String op,
+                                   String etag)
+        throws IOException
+    {
+        if (res.getStatus() != OK)
+            return res;
+        if (etag == null) {
+            if (! (res.getEntity() instanceof Map))
+                return res;
+            etag = op + "-" + DigestUtils.md5Hex(mapToJson(res.getEntity()));
+            Response unchanged = notModified(request, etag);
+            if (unchanged != null)
+                return unchanged;
+        }
+        return withTag(res, etag);
+    }
+
     /**
      * Is the object non-empty?
      */
@@ -166,10 +243,23 @@ public class JsonBuilder {
     {
         if (! TempletonUtils.isset(json))
             return new HashMap<String, Object>();
-        else {
-            ObjectMapper mapper = new ObjectMapper();
+        else
             return mapper.readValue(json, Map.class);
-        }
+    }
+
+    /**
+     * Convert an object to a Map, using the same field names that
+     * the json conversion would.
+     */
+    public static Map objectToMap(Object obj) {
+        return mapper.convertValue(obj, Map.class);
+    }
+
+    /**
+     * The shared json factory, with the shared mapper as its codec.
+     */
+    public static JsonFactory jsonFactory() {
+        return mapper.getJsonFactory();
     }
 
     /**
@@ -178,9 +268,6 @@ public class JsonBuilder {
     public static String mapToJson(Object obj)
         throws IOException
     {
-        ObjectMapper mapper = new ObjectMapper();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        mapper.writeValue(out, obj);
-        return out.toString();
+        return mapper.writeValueAsString(obj);
     }
 }
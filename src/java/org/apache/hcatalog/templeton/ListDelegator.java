@@ -20,12 +20,11 @@ package org.apache.hcatalog.templeton;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashSet;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.JobProfile;
 import org.apache.hadoop.mapred.JobStatus;
-import org.apache.hadoop.mapred.JobTracker;
 import org.apache.hadoop.mapred.TempletonJobTracker;
-import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hcatalog.templeton.tool.JobState;
 import org.apache.hcatalog.templeton.tool.TempletonUtils;
 import org.apache.zookeeper.ZooKeeper;
@@ -41,39 +40,72 @@ public class ListDelegator extends TempletonDelegator {
     public List<String> run(String user)
         throws NotAuthorizedException, BadParam, IOException
     {
-        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+        return run(user, null);
+    }
+
+    /**
+     * The user's jobs, from the job status snapshot when it is no
+     * older than maxStaleness milliseconds.
+     */
+    public List<String> run(String user, Long maxStaleness)
+        throws NotAuthorizedException, BadParam, IOException
+    {
+        JobTrackerPool pool = JobTrackerPool.getInstance();
         TempletonJobTracker tracker = null;
         try {
-            tracker = new TempletonJobTracker(ugi,
-                                              JobTracker.getAddress(appConf),
-                                              appConf);
-
             ArrayList<String> ids = new ArrayList<String>();
 
-            JobStatus[] jobs = tracker.getAllJobs();
+            JobStatus[] jobs
+                = JobStatusSnapshot.getInstance().getAllJobs(maxStaleness);
+            if (jobs == null) {
+                tracker = pool.borrow(user);
+                jobs = tracker.getAllJobs();
+            }
 
             if (jobs != null) {
-                for (JobStatus job : jobs) {
-                    JobState state = null;
-                    try {
+                if (JobState.isUserIndexBuilt(appConf)) {
+                    HashSet<String> mine = new HashSet<String>
+                        (JobState.getUserJobs(user, appConf));
+                    for (JobStatus job : jobs) {
                         String id = job.getJobID().toString();
-                        state = new JobState(id, Main.getAppConfigInstance());
-                        if (user.equals(state.getUser()))
+                        if (mine.contains(id))
                             ids.add(id);
-                    } finally {
-                        if (state != null) {
-                            state.close();
-                        }
                     }
-                }
+                } else
+                    ids = scanJobs(user, jobs);
             }
 
             return ids;
         } catch (IllegalStateException e) {
             throw new BadParam(e.getMessage());
         } finally {
-            if (tracker != null)
-                tracker.close();
+            pool.release(tracker);
+        }
+    }
+
+    // Read the owner of every job, the way jobs were found before
+    // the user index.  Adds each job to the index along the way,
+    // then marks the index as built.
+    private ArrayList<String> scanJobs(String user, JobStatus[] jobs)
+        throws IOException
+    {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (JobStatus job : jobs) {
+            JobState state = null;
+            try {
+                String id = job.getJobID().toString();
+                state = new JobState(id, Main.getAppConfigInstance());
+                String owner = state.getUser();
+                state.indexUser(owner);
+                if (user.equals(owner))
+                    ids.add(id);
+            } finally {
+                if (state != null) {
+                    state.close();
+                }
+            }
         }
+        JobState.setUserIndexBuilt(appConf);
+        return ids;
     }
 }
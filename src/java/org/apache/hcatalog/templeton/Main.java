@@ -148,6 +148,10 @@ public class Main {
         // Add the Auth filter
         root.addFilter(makeAuthFilter(), "/*", FilterMapping.REQUEST);
 
+        // Hold queue status requests that wait for a change
+        root.addFilter(new FilterHolder(new QueueWatchFilter(conf)),
+                       "/" + SERVLET_PATH + "/v1/queue/*", FilterMapping.REQUEST);
+
         // Connect Jersey
         ServletHolder h = new ServletHolder(new ServletContainer(makeJerseyConfig()));
         root.addServlet(h, "/" + SERVLET_PATH + "/*");
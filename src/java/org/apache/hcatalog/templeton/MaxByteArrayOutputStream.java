@@ -33,6 +33,11 @@ public class MaxByteArrayOutputStream extends ByteArrayOutputStream {
      */
     private int nBytes;
 
+    /**
+     * Were any bytes ignored?
+     */
+    private boolean truncated = false;
+
     /**
      * Create.
      */
@@ -51,6 +56,8 @@ public class MaxByteArrayOutputStream extends ByteArrayOutputStream {
         if (nBytes < maxBytes) {
             ++nBytes;
             super.write(b);
+        } else {
+            truncated = true;
         }
     }
 
@@ -69,7 +76,15 @@ public class MaxByteArrayOutputStream extends ByteArrayOutputStream {
             nBytes += storable;
             super.write(b, off, storable);
         }
+        if (storable < len)
+            truncated = true;
     }
 
+    /**
+     * True if any bytes past the first maxBytes were written.
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
 
 }
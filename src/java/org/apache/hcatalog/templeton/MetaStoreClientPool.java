@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+
+/**
+ * A pool of open metastore clients, keyed by the user the client
+ * was opened as.  This is a singleton service.
+ *
+ * Each user has at most templeton.metastore.pool.max-per-user open
+ * clients.  Idle clients are closed after
+ * templeton.metastore.pool.max-idle-ms and every client is closed
+ * once it is older than templeton.metastore.pool.max-lifetime-ms.
+ * A client that has been idle for a while is checked before it is
+ * handed out again.
+ *
+ * A null user is the Templeton server itself, used when the server
+ * asks the metastore for a delegation token on behalf of a user.
+ * Its clients use the plain hive configuration, as the token fetch
+ * always has.  The user clients use makeHiveConf().
+ */
+public class MetaStoreClientPool {
+    private static final Log LOG = LogFactory.getLog(MetaStoreClientPool.class);
+
+    public static final String MAX_PER_USER_NAME
+        = "templeton.metastore.pool.max-per-user";
+    public static final String MAX_IDLE_NAME
+        = "templeton.metastore.pool.max-idle-ms";
+    public static final String MAX_LIFETIME_NAME
+        = "templeton.metastore.pool.max-lifetime-ms";
+    public static final String VALIDATE_IDLE_NAME
+        = "templeton.metastore.pool.validate-idle-ms";
+    public static final String BORROW_TIMEOUT_NAME
+        = "templeton.metastore.pool.borrow-timeout-ms";
+
+    // The key used for clients opened as the server itself.
+    private static final String SERVER_KEY = "";
+
+    private static volatile MetaStoreClientPool theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized MetaStoreClientPool getInstance() {
+        if (theSingleton == null)
+            theSingleton = new MetaStoreClientPool(Main.getAppConfigInstance());
+        return theSingleton;
+    }
+
+    // An open client and when it was opened and last returned.
+    private static class PooledClient {
+        HiveMetaStoreClient client;
+        long created;
+        long lastUsed;
+
+        PooledClient(HiveMetaStoreClient client) {
+            this.client = client;
+            created = System.currentTimeMillis();
+            lastUsed = created;
+        }
+    }
+
+    private AppConfig appConf;
+    private int maxPerUser;
+    private long maxIdle;
+    private long maxLifetime;
+    private long validateIdle;
+    private long borrowTimeout;
+
+    // The idle clients for each user, most recently used first.
+    private final HashMap<String, LinkedList<PooledClient>> idle
+        = new HashMap<String, LinkedList<PooledClient>>();
+
+    // The clients handed out for each user.
+    private final IdentityHashMap<HiveMetaStoreClient, PooledClient> active
+        = new IdentityHashMap<HiveMetaStoreClient, PooledClient>();
+
+    // The number of open clients for each user, idle or not.
+    private final HashMap<String, Integer> open = new HashMap<String, Integer>();
+
+    // Stats
+    private long created = 0;
+    private long borrowed = 0;
+    private long reused = 0;
+    private long evicted = 0;
+    private long failedChecks = 0;
+    private long broken = 0;
+    private long timeouts = 0;
+
+    private MetaStoreClientPool(AppConfig appConf) {
+        this.appConf = appConf;
+        maxPerUser = appConf.getInt(MAX_PER_USER_NAME, 4);
+        maxIdle = appConf.getLong(MAX_IDLE_NAME, 60L * 1000L);
+        maxLifetime = appConf.getLong(MAX_LIFETIME_NAME, 10L * 60L * 1000L);
+        validateIdle = appConf.getLong(VALIDATE_IDLE_NAME, 5L * 1000L);
+        borrowTimeout = appConf.getLong(BORROW_TIMEOUT_NAME, 10L * 1000L);
+
+        Timer reaper = new Timer("templeton-metastore-pool-reaper", true);
+        long period = Math.max(1000L, maxIdle / 2);
+        reaper.schedule(new TimerTask() {
+                public void run() {
+                    evictExpired();
+                }
+            }, period, period);
+    }
+
+    /**
+     * Get an open client for the user, opening a new one if there
+     * are no idle clients.  Waits for a client to be released if the
+     * user already has the maximum number open.  The client must be
+     * given back with release().
+     *
+     * @param user   The user to open the client as, or null for the server.
+     */
+    public HiveMetaStoreClient borrow(String user)
+        throws IOException
+    {
+        String key = keyFor(user);
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+
+        while (true) {
+            PooledClient pc = null;
+            synchronized (this) {
+                while (true) {
+                    pc = takeIdle(key);
+                    if (pc != null || countOpen(key) < maxPerUser)
+                        break;
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        ++timeouts;
+                        throw new IOException("Timed out waiting for a metastore client for "
+                                              + user);
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (pc == null)
+                    addOpen(key, 1); // Reserve the slot before opening.
+                ++borrowed;
+            }
+
+            if (pc == null) {
+                try {
+                    pc = new PooledClient(openClient(user));
+                } catch (IOException e) {
+                    closed(key);
+                    throw e;
+                }
+                synchronized (this) {
+                    ++created;
+                    active.put(pc.client, pc);
+                }
+                return pc.client;
+            }
+
+            if (isHealthy(pc)) {
+                synchronized (this) {
+                    ++reused;
+                    active.put(pc.client, pc);
+                }
+                return pc.client;
+            }
+
+            synchronized (this) {
+                ++failedChecks;
+            }
+            close(key, pc);
+        }
+    }
+
+    /**
+     * Give a client back to the pool.  A broken client, one that
+     * threw an unexpected error, is closed instead of reused.
+     *
+     * @param user    The user given to borrow()
+     * @param client  The client from borrow()
+     * @param isBroken Close the client instead of reusing it.
+     */
+    public void release(String user, HiveMetaStoreClient client, boolean isBroken) {
+        if (client == null)
+            return;
+        String key = keyFor(user);
+        PooledClient pc;
+        synchronized (this) {
+            pc = active.remove(client);
+            if (pc == null) {
+                LOG.warn("Bug: releasing an unknown metastore client for " + key);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (isBroken)
+                ++broken;
+            else if (now - pc.created < maxLifetime) {
+                pc.lastUsed = now;
+                idleFor(key).addFirst(pc);
+                notifyAll();
+                return;
+            }
+        }
+        close(key, pc);
+    }
+
+    /**
+     * Close all the idle clients that have been idle too long or are
+     * past their lifetime.
+     */
+    public void evictExpired() {
+        LinkedList<PooledClient> expired = new LinkedList<PooledClient>();
+        LinkedList<String> keys = new LinkedList<String>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, LinkedList<PooledClient>> e : idle.entrySet()) {
+                Iterator<PooledClient> it = e.getValue().iterator();
+                while (it.hasNext()) {
+                    PooledClient pc = it.next();
+                    if (isExpired(pc, now)) {
+                        it.remove();
+                        expired.add(pc);
+                        keys.add(e.getKey());
+                        ++evicted;
+                    }
+                }
+            }
+        }
+
+        Iterator<String> k = keys.iterator();
+        for (PooledClient pc : expired)
+            close(k.next(), pc);
+    }
+
+    /**
+     * The pool statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        int nidle = 0;
+        for (LinkedList<PooledClient> l : idle.values())
+            nidle += l.size();
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("users", open.size());
+        res.put("idle", nidle);
+        res.put("active", active.size());
+        res.put("created", created);
+        res.put("borrowed", borrowed);
+        res.put("reused", reused);
+        res.put("evicted", evicted);
+        res.put("failedChecks", failedChecks);
+        res.put("broken", broken);
+        res.put("timeouts", timeouts);
+        return res;
+    }
+
+    /**
+     * The hive configuration used to reach the metastore.  This is
+     * hive-site.xml, the same as the hcat executable reads.  The
+     * templeton.hive.properties are only applied when they are
+     * changed from the default, which names an unsecured localhost
+     * metastore meant for the Hive jobs.
+     */
+    public HiveConf makeHiveConf() {
+        HiveConf conf = new HiveConf();
+        if (! appConf.isChangedFromDefault(AppConfig.HIVE_PROPS_NAME))
+            return conf;
+        String[] props = appConf.getStrings(AppConfig.HIVE_PROPS_NAME);
+        if (props != null) {
+            for (String prop : props) {
+                String[] kv = prop.split("=", 2);
+                if (kv.length == 2)
+                    conf.set(kv[0], kv[1]);
+            }
+        }
+        return conf;
+    }
+
+    // Open a new client as the user.  The server's own client, used
+    // for delegation tokens, reads only hive-site.xml.
+    private HiveMetaStoreClient openClient(String user)
+        throws IOException
+    {
+        try {
+            if (user == null)
+                return new HiveMetaStoreClient(new HiveConf());
+
+            final HiveConf conf = makeHiveConf();
+
+            return UgiFactory.getUgi(user).doAs(
+                new PrivilegedExceptionAction<HiveMetaStoreClient>() {
+                    public HiveMetaStoreClient run() throws Exception {
+                        return new HiveMetaStoreClient(conf);
+                    }
+                });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to open a metastore client for " + user, e);
+        }
+    }
+
+    // Check an idle client before handing it out.
+    private boolean isHealthy(PooledClient pc) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pc, now))
+            return false;
+        if (now - pc.lastUsed < validateIdle)
+            return true;
+        try {
+            pc.client.getDatabases("default");
+            return true;
+        } catch (Exception e) {
+            LOG.info("Dropping a stale metastore client: " + e);
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledClient pc, long now) {
+        return (now - pc.lastUsed >= maxIdle) || (now - pc.created >= maxLifetime);
+    }
+
+    // Close a client that is no longer in the pool.
+    private void close(String key, PooledClient pc) {
+        try {
+            pc.client.close();
+        } catch (Exception e) {
+            LOG.info("Error closing metastore client: " + e);
+        }
+        closed(key);
+    }
+
+    private synchronized void closed(String key) {
+        addOpen(key, -1);
+        notifyAll();
+    }
+
+    private PooledClient takeIdle(String key) {
+        LinkedList<PooledClient> l = idle.get(key);
+        if (l == null || l.isEmpty())
+            return null;
+        return l.removeFirst();
+    }
+
+    private LinkedList<PooledClient> idleFor(String key) {
+        LinkedList<PooledClient> l = idle.get(key);
+        if (l == null) {
+            l = new LinkedList<PooledClient>();
+            idle.put(key, l);
+        }
+        return l;
+    }
+
+    private int countOpen(String key) {
+        Integer n = open.get(key);
+        return (n == null) ? 0 : n;
+    }
+
+    private void addOpen(String key, int delta) {
+        int n = countOpen(key) + delta;
+        if (n > 0)
+            open.put(key, n);
+        else {
+            open.remove(key);
+            LinkedList<PooledClient> l = idle.get(key);
+            if (l != null && l.isEmpty())
+                idle.remove(key);
+        }
+    }
+
+    private static String keyFor(String user) {
+        return (user == null) ? SERVER_KEY : user;
+    }
+}
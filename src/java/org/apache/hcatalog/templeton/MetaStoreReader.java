@@ -0,0 +1,519 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.common.FileUtils;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.Warehouse;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hcatalog.templeton.tool.TempletonUtils;
+
+/**
+ * Answer the read only ddl calls directly from the metastore instead
+ * of forking hcat.  The client is opened as the proxy user from the
+ * MetaStoreClientPool and the results
+ * have the same json shape as the hcat json output, so HcatDelegator
+ * can use either one.
+ *
+ * Any metastore failure is returned as an IOException so that the
+ * caller can fall back to running hcat.  Missing objects are not a
+ * failure, they return the same json error that hcat does.
+ */
+public class MetaStoreReader {
+    private static final Log LOG = LogFactory.getLog(MetaStoreReader.class);
+
+    // The table parameter the metastore sets on every ddl change.
+    private static final String DDL_TIME = "transient_lastDdlTime";
+
+    private AppConfig appConf;
+
+    public MetaStoreReader(AppConfig appConf) {
+        this.appConf = appConf;
+    }
+
+    /**
+     * Is the direct metastore read path turned on?
+     */
+    public static boolean isEnabled(AppConfig appConf) {
+        return appConf.getBoolean(AppConfig.HCAT_DIRECT_READS_NAME, false);
+    }
+
+    /**
+     * A unit of work to run against an open metastore client.
+     */
+    public interface MetaStoreCall<T> {
+        public T run(HiveMetaStoreClient client) throws Exception;
+    }
+
+    /**
+     * The same as "show databases like".
+     */
+    public Map listDatabases(String user, final String dbPattern)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    return JsonBuilder.create()
+                        .put("databases", client.getDatabases(dbPattern))
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * The same as "desc database".
+     */
+    public Map descDatabase(String user, final String db, final boolean extended)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    Database d;
+                    try {
+                        d = client.getDatabase(db);
+                    } catch (NoSuchObjectException e) {
+                        return missing("Database " + db + " does not exist");
+                    }
+                    JsonBuilder res = JsonBuilder.create()
+                        .put("database", d.getName())
+                        .put("comment", d.getDescription())
+                        .put("location", d.getLocationUri());
+                    if (extended && TempletonUtils.isset(d.getParameters()))
+                        res.put("params", d.getParameters());
+                    return res.getMap();
+                }
+            });
+    }
+
+    /**
+     * The same as "show tables like".
+     */
+    public Map listTables(String user, final String db, final String tablePattern)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    try {
+                        client.getDatabase(db);
+                    } catch (NoSuchObjectException e) {
+                        return missing("Database " + db + " does not exist");
+                    }
+                    return JsonBuilder.create()
+                        .put("tables", client.getTables(db, tablePattern))
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * The same as "desc" or "desc extended".  The partition columns
+     * are listed after the regular columns, as hive does.
+     */
+    public Map descTable(String user, final String db, final String table,
+                         final boolean extended)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return missingTable(table);
+
+                    List<FieldSchema> cols = new ArrayList<FieldSchema>();
+                    cols.addAll(t.getSd().getCols());
+                    if (t.getPartitionKeys() != null)
+                        cols.addAll(t.getPartitionKeys());
+
+                    JsonBuilder res = JsonBuilder.create()
+                        .put("columns", makeCols(cols));
+                    if (extended)
+                        res.put("tableInfo", JsonBuilder.objectToMap(t));
+                    return res.getMap();
+                }
+            });
+    }
+
+    /**
+     * A marker that changes whenever the database changes, or null if
+     * there is no such database.
+     */
+    public String databaseVersion(String user, final String db)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<String>() {
+                public String run(HiveMetaStoreClient client) throws Exception {
+                    try {
+                        Database d = client.getDatabase(db);
+                        return Integer.toHexString(d.toString().hashCode());
+                    } catch (NoSuchObjectException e) {
+                        return null;
+                    }
+                }
+            });
+    }
+
+    /**
+     * A marker that changes whenever the table changes, or null if
+     * there is no such table.  This is the table's last ddl time and
+     * a checksum of the table record, which also catches changes made
+     * within the same second.  Adding or dropping a partition does
+     * not change the table record, so this is no marker for the
+     * partitions.
+     */
+    public String tableVersion(String user, final String db, final String table)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<String>() {
+                public String run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return null;
+                    String ddlTime = null;
+                    if (t.getParameters() != null)
+                        ddlTime = t.getParameters().get(DDL_TIME);
+                    return ddlTime + "-"
+                        + Integer.toHexString(t.toString().hashCode());
+                }
+            });
+    }
+
+    /**
+     * A marker that changes whenever the table or its list of
+     * partitions changes, or null if there is no such table.  This is
+     * the table's last ddl time, the partition count and a digest of
+     * the partition names, so a dropped partition replaced by another
+     * still changes it.  Only the names are read, not the partitions.
+     */
+    public String partitionsVersion(String user, final String db, final String table)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<String>() {
+                public String run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return null;
+                    String ddlTime = null;
+                    if (t.getParameters() != null)
+                        ddlTime = t.getParameters().get(DDL_TIME);
+                    List<String> names = client.listPartitionNames(db, table, (short) -1);
+                    return ddlTime + "-" + names.size() + "-"
+                        + DigestUtils.md5Hex(StringUtils.join(names, "\n"));
+                }
+            });
+    }
+
+    /**
+     * The table properties, without the rest of the extended table
+     * description.
+     */
+    public Map tableProperties(String user, final String db, final String table)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return missingTable(table);
+                    return JsonBuilder.create()
+                        .put("properties", t.getParameters())
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * The same as "show partitions".
+     */
+    public Map listPartitions(String user, final String db, final String table)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    if (getTable(client, db, table) == null)
+                        return missingTable(table);
+
+                    ArrayList<Map> parts = new ArrayList<Map>();
+                    for (String name : client.listPartitionNames(db, table, (short) -1))
+                        parts.add(makeOnePartition(name));
+                    return JsonBuilder.create()
+                        .put("partitions", parts)
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * The names of the partitions that match a filter, such as
+     * "ds > '2012-01-01'", or of all the partitions if the filter is
+     * null.  The filter is run by the metastore, which stops after
+     * max names, or reads them all if max is negative.  The names
+     * are returned as "partitionNames", in the metastore order.
+     *
+     * The metastore client has no call that lists only the names
+     * that match a filter, so a filter reads the full partitions and
+     * makes the names from them.
+     */
+    public Map listPartitionNames(String user, final String db, final String table,
+                                  final String filter, final short max)
+        throws IOException
+    {
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return missingTable(table);
+
+                    List<String> names;
+                    if (! TempletonUtils.isset(filter))
+                        names = client.listPartitionNames(db, table, max);
+                    else {
+                        List<Partition> parts;
+                        try {
+                            parts = client.listPartitionsByFilter(db, table, filter,
+                                                                  max);
+                        } catch (MetaException e) {
+                            return JsonBuilder.createError("Invalid partition filter: "
+                                                           + e.getMessage(),
+                                                           JsonBuilder.BAD_REQUEST)
+                                .getMap();
+                        }
+                        names = new ArrayList<String>(parts.size());
+                        for (Partition p : parts)
+                            names.add(Warehouse.makePartName(t.getPartitionKeys(),
+                                                             p.getValues()));
+                    }
+                    return JsonBuilder.create()
+                        .put("partitionNames", names)
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * Describe one partition from its metastore record, the same as
+     * "show table extended like ... partition" without the file
+     * system stats.
+     *
+     * @param partition  The partition spec, such as "ds='2012-01-01',hr=12"
+     */
+    public Map descPartition(String user, final String db, final String table,
+                             final String partition)
+        throws IOException
+    {
+        final Map<String, String> spec = parsePartitionSpec(partition);
+        if (spec == null)
+            return JsonBuilder.createError("Invalid partition spec " + partition,
+                                           JsonBuilder.BAD_REQUEST)
+                .getMap();
+
+        return call(user, new MetaStoreCall<Map>() {
+                public Map run(HiveMetaStoreClient client) throws Exception {
+                    Table t = getTable(client, db, table);
+                    if (t == null)
+                        return missingTable(table);
+
+                    List<FieldSchema> keys = t.getPartitionKeys();
+                    ArrayList<String> vals = new ArrayList<String>();
+                    for (FieldSchema key : keys) {
+                        String val = spec.get(key.getName().toLowerCase());
+                        if (val == null)
+                            break;
+                        vals.add(val);
+                    }
+                    if (vals.size() != keys.size() || spec.size() != keys.size())
+                        return JsonBuilder.createError("Partition spec " + partition
+                                                       + " does not match the"
+                                                       + " partition columns of "
+                                                       + table,
+                                                       JsonBuilder.BAD_REQUEST)
+                            .getMap();
+
+                    Partition p;
+                    try {
+                        p = client.getPartition(db, table, vals);
+                    } catch (NoSuchObjectException e) {
+                        return missing("Partition " + partition + " for table "
+                                       + table + " does not exist");
+                    }
+
+                    return JsonBuilder.create()
+                        .put("owner", t.getOwner())
+                        .put("location", p.getSd().getLocation())
+                        .put("inputFormat", p.getSd().getInputFormat())
+                        .put("outputFormat", p.getSd().getOutputFormat())
+                        .put("columns", makeCols(p.getSd().getCols()))
+                        .put("partitioned", true)
+                        .put("partitionColumns", makeCols(keys))
+                        .getMap();
+                }
+            });
+    }
+
+    /**
+     * Run the call with a pooled metastore client opened as the
+     * given user.
+     */
+    public <T> T call(String user, MetaStoreCall<T> call)
+        throws IOException
+    {
+        MetaStoreClientPool pool = MetaStoreClientPool.getInstance();
+        HiveMetaStoreClient client = pool.borrow(user);
+        boolean isBroken = true;
+        try {
+            T res = call.run(client);
+            isBroken = false;
+            return res;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            pool.release(user, client, isBroken);
+        }
+    }
+
+    // Lookup a table, null if there is no such table.
+    private static Table getTable(HiveMetaStoreClient client, String db, String table)
+        throws Exception
+    {
+        try {
+            return client.getTable(db, table);
+        } catch (NoSuchObjectException e) {
+            return null;
+        }
+    }
+
+    // Format a list of columns the same as "desc".
+    private static List<Map> makeCols(List<FieldSchema> cols) {
+        ArrayList<Map> res = new ArrayList<Map>();
+        for (FieldSchema col : cols) {
+            HashMap<String, String> m = new HashMap<String, String>();
+            m.put("name", col.getName());
+            m.put("type", col.getType());
+            if (col.getComment() != null)
+                m.put("comment", col.getComment());
+            res.add(m);
+        }
+        return res;
+    }
+
+    /**
+     * Format one partition name, such as "ds=2012-01-01/hr=12", the
+     * same as "show partitions".  The name is escaped the way the
+     * metastore makes paths, which leaves a '+' as it is, so it is not
+     * url decoded.
+     */
+    public static Map makeOnePartition(String partName) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Map> values = new ArrayList<Map>();
+        for (String part : partName.split("/")) {
+            String[] kv = part.split("=", 2);
+            String name = FileUtils.unescapePathName(kv[0]);
+            String val = null;
+            if (kv.length > 1)
+                val = FileUtils.unescapePathName(kv[1]);
+
+            if (val != null)
+                names.add(name + "='" + val + "'");
+            else
+                names.add(name);
+
+            HashMap<String, String> col = new HashMap<String, String>();
+            col.put("columnName", name);
+            col.put("columnValue", val);
+            values.add(col);
+        }
+
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("name", StringUtils.join(names, ","));
+        res.put("values", values);
+        return res;
+    }
+
+    /**
+     * Parse a partition spec, such as "ds='2012-01-01',hr=12", into a
+     * map of lower case column names to values.  Returns null if the
+     * spec can't be parsed.
+     */
+    public static Map<String, String> parsePartitionSpec(String spec) {
+        LinkedHashMap<String, String> res = new LinkedHashMap<String, String>();
+        ArrayList<String> parts = new ArrayList<String>();
+        StringBuilder cur = new StringBuilder();
+        char quote = 0;
+        for (int i = 0; i < spec.length(); ++i) {
+            char c = spec.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"')
+                quote = c;
+            else if (c == ',') {
+                parts.add(cur.toString());
+                cur.setLength(0);
+                continue;
+            }
+            cur.append(c);
+        }
+        if (quote != 0)
+            return null;
+        parts.add(cur.toString());
+
+        for (String part : parts) {
+            String[] kv = part.split("=", 2);
+            if (kv.length != 2)
+                return null;
+            String name = kv[0].trim().toLowerCase();
+            String val = kv[1].trim();
+            if (val.length() >= 2
+                && (val.charAt(0) == '\'' || val.charAt(0) == '"')
+                && val.charAt(val.length() - 1) == val.charAt(0))
+                val = val.substring(1, val.length() - 1);
+            if (name.length() == 0 || res.containsKey(name))
+                return null;
+            res.put(name, val);
+        }
+        return res;
+    }
+
+    private static Map missingTable(String table)
+        throws IOException
+    {
+        return missing("Table " + table + " does not exist");
+    }
+
+    private static Map missing(String msg)
+        throws IOException
+    {
+        return JsonBuilder.createError(msg, JsonBuilder.MISSING).getMap();
+    }
+}
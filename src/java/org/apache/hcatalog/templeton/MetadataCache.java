@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the results of the read only ddl calls.  This is a
+ * singleton service.
+ *
+ * Results are cached for each user, so a user only sees results
+ * that were fetched with their own permissions.  A result is kept
+ * for templeton.ddl.cache.ttl-ms and at most
+ * templeton.ddl.cache.max-entries results are kept, dropping the
+ * least recently used first.  A ttl of 0 turns the cache off.
+ *
+ * Every ddl write made through this server invalidates the cached
+ * results for the database and table it changes, for all users.
+ * Each invalidation also moves the generation of what it covers on,
+ * so a read that started before the write, and finishes after it,
+ * does not cache its stale result.  The names are hashed into a fixed
+ * number of generation counters, so they take the same memory however
+ * many tables come and go.  Two names that share a counter only cost
+ * an extra dropped put.
+ */
+public class MetadataCache {
+    public static final String TTL_NAME         = "templeton.ddl.cache.ttl-ms";
+    public static final String MAX_ENTRIES_NAME = "templeton.ddl.cache.max-entries";
+
+    private static volatile MetadataCache theSingleton;
+
+    // The op of the entries that record the metastore versions.
+    private static final String VERSION_OP = "version";
+
+    // The number of generation counters of each kind.
+    private static final int GENERATION_SLOTS = 4096;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized MetadataCache getInstance() {
+        if (theSingleton == null) {
+            AppConfig appConf = Main.getAppConfigInstance();
+            theSingleton = new MetadataCache(appConf.getInt(MAX_ENTRIES_NAME, 10000),
+                                             appConf.getLong(TTL_NAME, 0));
+        }
+        return theSingleton;
+    }
+
+    // The cache key.  Names are not case sensitive in hcat.
+    private static class Key {
+        final String user;
+        final String db;
+        final String table;
+        final String op;
+        final String arg;
+
+        Key(String user, String db, String table, String op, String arg) {
+            this.user = user;
+            this.db = lower(db);
+            this.table = lower(table);
+            this.op = op;
+            this.arg = arg;
+        }
+
+        public boolean equals(Object o) {
+            if (! (o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return same(user, k.user) && same(db, k.db) && same(table, k.table)
+                && same(op, k.op) && same(arg, k.arg);
+        }
+
+        public int hashCode() {
+            int h = 17;
+            for (String s : new String[] {user, db, table, op, arg})
+                h = 31 * h + ((s == null) ? 0 : s.hashCode());
+            return h;
+        }
+    }
+
+    // A cached result.
+    private static class Cached {
+        final Map result;
+        final long expires;
+
+        Cached(Map result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttl;
+    private final LinkedHashMap<Key, Cached> entries;
+
+    // The generation counters moved on by the invalidations.  The
+    // generation of a result is the sum of the counters that cover it.
+    private long allGeneration = 0;
+    private long noDatabaseGeneration = 0;
+    private final long[] databaseGenerations = new long[GENERATION_SLOTS];
+    private final long[] databaseCallGenerations = new long[GENERATION_SLOTS];
+    private final long[] tableGenerations = new long[GENERATION_SLOTS];
+
+    // Stats
+    private long hits = 0;
+    private long misses = 0;
+    private long expired = 0;
+    private long evicted = 0;
+    private long invalidated = 0;
+    private long stalePuts = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxEntries  The most results to keep
+     * @param ttl         How long in milliseconds to keep a result, 0 for never.
+     */
+    public MetadataCache(final int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() > maxEntries) {
+                    ++evicted;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Is the cache turned on?
+     */
+    public boolean isEnabled() {
+        return ttl > 0 && maxEntries > 0;
+    }
+
+    /**
+     * Find a cached result.  The returned map is a copy that the
+     * caller may change.
+     *
+     * @param user  The user making the call
+     * @param db    The database, or null if the call is not for one database
+     * @param table The table, or null if the call is not for one table
+     * @param op    The name of the call
+     * @param arg   Any extra argument to the call, such as the format
+     * @return The result, or null if nothing is cached.
+     */
+    public synchronized Map get(String user, String db, String table,
+                                String op, String arg)
+    {
+        if (! isEnabled())
+            return null;
+
+        Key key = new Key(user, db, table, op, arg);
+        Cached e = entries.get(key);
+        if (e == null) {
+            ++misses;
+            return null;
+        }
+        if (e.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            ++expired;
+            ++misses;
+            return null;
+        }
+
+        ++hits;
+        return new HashMap(e.result);
+    }
+
+    /**
+     * The generation of the results for a database or table.  Read
+     * it before making a call and give it to put().
+     *
+     * @param db    The database, or null if the call is not for one database
+     * @param table The table, or null if the call is not for one table
+     */
+    public synchronized long generation(String db, String table) {
+        String ldb = lower(db);
+        if (ldb == null)
+            return allGeneration + noDatabaseGeneration;
+        if (table == null)
+            return allGeneration + databaseGenerations[slot(ldb)]
+                + databaseCallGenerations[slot(ldb)];
+        return allGeneration + databaseGenerations[slot(ldb)]
+            + tableGenerations[slot(tableName(ldb, table))];
+    }
+
+    /**
+     * Save a result.  The map is copied.
+     */
+    public synchronized void put(String user, String db, String table,
+                                 String op, String arg, Map result)
+    {
+        put(user, db, table, op, arg, result, generation(db, table));
+    }
+
+    /**
+     * Save a result fetched at the given generation.  The result is
+     * dropped if it has been invalidated since.  The map is copied.
+     */
+    public synchronized void put(String user, String db, String table,
+                                 String op, String arg, Map result,
+                                 long generation)
+    {
+        if (! isEnabled() || result == null)
+            return;
+        if (generation != generation(db, table)) {
+            ++stalePuts;
+            return;
+        }
+        entries.put(new Key(user, db, table, op, arg),
+                    new Cached(new HashMap(result), System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Drop the cached results for a table, and the results of calls
+     * on the whole database, such as the table list.  The recorded
+     * versions are kept.
+     */
+    public synchronized void invalidateTable(String db, String table) {
+        String ldb = lower(db);
+        String ltable = lower(table);
+        ++databaseCallGenerations[slot(ldb)];
+        if (ltable != null)
+            ++tableGenerations[slot(tableName(ldb, ltable))];
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            Key k = it.next();
+            if (same(ldb, k.db) && (k.table == null || same(ltable, k.table))
+                && ! VERSION_OP.equals(k.op)) {
+                it.remove();
+                ++invalidated;
+            }
+        }
+    }
+
+    /**
+     * Drop the cached results for a database and all its tables, and
+     * the results of the database list.
+     */
+    public synchronized void invalidateDatabase(String db) {
+        String ldb = lower(db);
+        ++noDatabaseGeneration;
+        ++databaseGenerations[slot(ldb)];
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            Key k = it.next();
+            if (k.db == null || same(ldb, k.db)) {
+                it.remove();
+                ++invalidated;
+            }
+        }
+    }
+
+    /**
+     * Record the current metastore version of a database or table,
+     * as seen by one call.  If the version is new the cached results
+     * for it are dropped, since they may have been fetched before a
+     * change made outside this server.
+     *
+     * @param db      The database
+     * @param table   The table, or null for the database itself
+     * @param op      The name of the call
+     * @param version The version marker from the metastore
+     */
+    public synchronized void checkVersion(String db, String table,
+                                          String op, String version)
+    {
+        if (! isEnabled() || version == null)
+            return;
+
+        Key key = new Key(null, db, table, VERSION_OP, op);
+        Cached old = entries.get(key);
+        if (old != null && version.equals(old.result.get("version")))
+            return;
+
+        invalidateTable(db, table);
+        HashMap<String, String> res = new HashMap<String, String>();
+        res.put("version", version);
+        entries.put(key, new Cached(res, Long.MAX_VALUE));
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    public synchronized void invalidateAll() {
+        ++allGeneration;
+        invalidated += entries.size();
+        entries.clear();
+    }
+
+    /**
+     * The cache statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("enabled", isEnabled());
+        res.put("size", entries.size());
+        res.put("hits", hits);
+        res.put("misses", misses);
+        res.put("expired", expired);
+        res.put("evicted", evicted);
+        res.put("invalidated", invalidated);
+        res.put("stalePuts", stalePuts);
+        return res;
+    }
+
+    // The generation counter of a name.
+    private static int slot(String name) {
+        int h = (name == null) ? 0 : name.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % GENERATION_SLOTS;
+    }
+
+    private static String tableName(String ldb, String table) {
+        return ldb + "." + lower(table);
+    }
+
+    private static String lower(String s) {
+        return (s == null) ? null : s.toLowerCase();
+    }
+
+    private static boolean same(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
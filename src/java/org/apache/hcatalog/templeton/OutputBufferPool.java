@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of the fixed size segments used to hold the stdout and
+ * stderr of the local programs.  This is a singleton service.
+ *
+ * A PooledOutputStream takes segments from the pool as it grows and
+ * gives them back when it is released, so the buffers of one exec are
+ * reused by the next instead of becoming garbage.  The pool keeps at
+ * most templeton.exec.buffer.max-pooled-bytes of free segments; a
+ * segment given back past that is dropped.  Segments in use are never
+ * limited here, since each stream is already limited to
+ * templeton.exec.max-output-bytes and the number of streams by the
+ * process slots.
+ */
+public class OutputBufferPool {
+    public static final String SEGMENT_BYTES_NAME    = "templeton.exec.buffer.segment-bytes";
+    public static final String MAX_POOLED_BYTES_NAME = "templeton.exec.buffer.max-pooled-bytes";
+
+    private static volatile OutputBufferPool theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized OutputBufferPool getInstance() {
+        if (theSingleton == null) {
+            AppConfig appConf = Main.getAppConfigInstance();
+            theSingleton = new OutputBufferPool(appConf.getInt(SEGMENT_BYTES_NAME, 16384),
+                                                appConf.getLong(MAX_POOLED_BYTES_NAME,
+                                                                16777216));
+        }
+        return theSingleton;
+    }
+
+    private final int segmentBytes;
+    private final long maxPooledBytes;
+    private final ArrayList<byte[]> free = new ArrayList<byte[]>();
+
+    private long inUseBytes = 0;
+    private long highWaterBytes = 0;
+    private long allocated = 0;
+    private long reused = 0;
+    private long dropped = 0;
+
+    /**
+     * Create a pool.
+     *
+     * @param segmentBytes    The size of each segment
+     * @param maxPooledBytes  The most bytes of free segments to keep
+     */
+    public OutputBufferPool(int segmentBytes, long maxPooledBytes) {
+        this.segmentBytes = Math.max(1, segmentBytes);
+        this.maxPooledBytes = Math.max(0, maxPooledBytes);
+    }
+
+    /**
+     * The size of each segment.
+     */
+    public int segmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Take a segment, reusing a free one if there is one.
+     */
+    public synchronized byte[] take() {
+        byte[] seg;
+        if (free.isEmpty()) {
+            seg = new byte[segmentBytes];
+            ++allocated;
+        } else {
+            seg = free.remove(free.size() - 1);
+            ++reused;
+        }
+        inUseBytes += segmentBytes;
+        highWaterBytes = Math.max(highWaterBytes, heldBytes());
+        return seg;
+    }
+
+    /**
+     * Give back a segment from take.  The contents are not cleared.
+     */
+    public synchronized void give(byte[] seg) {
+        inUseBytes -= segmentBytes;
+        if (pooledBytes() + segmentBytes <= maxPooledBytes)
+            free.add(seg);
+        else
+            ++dropped;
+    }
+
+    /**
+     * Stop counting n segments from take that will never be given
+     * back, such as those of a stream still being written when it was
+     * given up on.
+     */
+    public synchronized void drop(int n) {
+        inUseBytes -= (long) n * segmentBytes;
+        dropped += n;
+    }
+
+    /**
+     * The bytes in segments now held by streams or kept free.
+     */
+    public synchronized long heldBytes() {
+        return inUseBytes + pooledBytes();
+    }
+
+    /**
+     * The most bytes ever held at once.
+     */
+    public synchronized long highWaterBytes() {
+        return highWaterBytes;
+    }
+
+    private long pooledBytes() {
+        return (long) free.size() * segmentBytes;
+    }
+
+    /**
+     * The pool statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("segmentBytes", segmentBytes);
+        res.put("maxPooledBytes", maxPooledBytes);
+        res.put("inUseBytes", inUseBytes);
+        res.put("pooledBytes", pooledBytes());
+        res.put("heldBytes", heldBytes());
+        res.put("highWaterBytes", highWaterBytes);
+        res.put("allocated", allocated);
+        res.put("reused", reused);
+        res.put("dropped", dropped);
+        return res;
+    }
+}
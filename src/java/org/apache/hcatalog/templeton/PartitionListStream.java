@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Write one page of a partition list as json, one partition at a
+ * time, so a long list is never built in memory as a whole document.
+ * The partitions are the same json as "show partitions".
+ */
+public class PartitionListStream implements StreamingOutput {
+    private static final JsonFactory factory = JsonBuilder.jsonFactory();
+
+    private String db;
+    private String table;
+    private List<String> names;
+    private int offset;
+    private int end;
+    private boolean complete;
+
+    /**
+     * Write the partitions names.subList(offset, end).
+     *
+     * @param names     The matching partition names read
+     * @param complete  Are these all the matching names?  If not the
+     *                  total is not known and is left out.
+     */
+    public PartitionListStream(String db, String table, List<String> names,
+                               int offset, int end, boolean complete)
+    {
+        this.db = db;
+        this.table = table;
+        this.names = names;
+        this.offset = offset;
+        this.end = end;
+        this.complete = complete;
+    }
+
+    public void write(OutputStream out)
+        throws IOException, WebApplicationException
+    {
+        JsonGenerator gen = factory.createJsonGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+        gen.writeStringField("database", db);
+        gen.writeStringField("table", table);
+        gen.writeNumberField("offset", offset);
+        if (complete)
+            gen.writeNumberField("total", names.size());
+        if (end < names.size())
+            gen.writeNumberField("nextOffset", end);
+
+        gen.writeArrayFieldStart("partitions");
+        for (int i = offset; i < end; ++i)
+            gen.writeObject(MetaStoreReader.makeOnePartition(names.get(i)));
+        gen.writeEndArray();
+
+        gen.writeEndObject();
+        gen.flush();
+    }
+
+    /**
+     * How many names to ask the metastore for to fill a page: one
+     * past the end of the page, so we know if there is a next page.
+     * -1, for all of them, if there is no limit or the page ends past
+     * the most the metastore call can be asked for.
+     */
+    public static short fetchMax(int offset, int limit) {
+        if (limit < 0)
+            return -1;
+        long max = (long) Math.max(offset, 0) + limit + 1;
+        return (max > Short.MAX_VALUE) ? -1 : (short) max;
+    }
+
+    /**
+     * The first partition of a page: the offset, or the total if the
+     * offset is past the end.
+     */
+    public static int pageStart(int total, int offset) {
+        return Math.min(Math.max(offset, 0), total);
+    }
+
+    /**
+     * The end of the page of at most limit partitions from start, or
+     * the total if limit is negative.  Any limit, even
+     * Integer.MAX_VALUE, is safe.
+     */
+    public static int pageEnd(int total, int start, int limit) {
+        if (limit < 0 || limit > total - start)
+            return total;
+        return start + limit;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+/**
+ * An output stream that will only accept the first N bytes of data,
+ * kept in segments from an OutputBufferPool.  Call release when done
+ * to give the segments back.
+ *
+ * Not synchronized: one thread writes, and the reader must wait for
+ * it to finish, such as by joining it.
+ */
+public class PooledOutputStream extends OutputStream {
+    private OutputBufferPool pool;
+    private ArrayList<byte[]> segments = new ArrayList<byte[]>();
+
+    /**
+     * The max number of bytes stored.
+     */
+    private volatile int maxBytes;
+
+    /**
+     * The number of bytes currently stored.
+     */
+    private int nBytes = 0;
+
+    /**
+     * Create.
+     */
+    public PooledOutputStream(OutputBufferPool pool, int maxBytes) {
+        this.pool = pool;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Writes the specified byte.  Any bytes after the first maxBytes
+     * will be ignored.
+     */
+    public void write(int b) {
+        if (nBytes >= maxBytes)
+            return;
+        int seg = pool.segmentBytes();
+        if (nBytes == segments.size() * seg)
+            segments.add(pool.take());
+        segments.get(nBytes / seg)[nBytes % seg] = (byte) b;
+        ++nBytes;
+    }
+
+    /**
+     * Writes len bytes from the specified byte array starting at
+     * offset off.  Any bytes after the first maxBytes will be ignored.
+     */
+    public void write(byte b[], int off, int len) {
+        int left = Math.min(maxBytes - nBytes, len);
+        int seg = pool.segmentBytes();
+        while (left > 0) {
+            if (nBytes == segments.size() * seg)
+                segments.add(pool.take());
+            int pos = nBytes % seg;
+            int n = Math.min(left, seg - pos);
+            System.arraycopy(b, off, segments.get(nBytes / seg), pos, n);
+            nBytes += n;
+            off += n;
+            left -= n;
+        }
+    }
+
+    /**
+     * The number of bytes stored.
+     */
+    public int size() {
+        return nBytes;
+    }
+
+    /**
+     * The bytes stored, decoded with the given encoding.
+     */
+    public String toString(String enc)
+        throws UnsupportedEncodingException
+    {
+        if (segments.size() == 1)
+            return new String(segments.get(0), 0, nBytes, enc);
+
+        byte[] all = new byte[nBytes];
+        int seg = pool.segmentBytes();
+        for (int i = 0, pos = 0; pos < nBytes; ++i, pos += seg)
+            System.arraycopy(segments.get(i), 0, all, pos, Math.min(seg, nBytes - pos));
+        return new String(all, enc);
+    }
+
+    /**
+     * Give up on a stream that may still be written to, such as by a
+     * pump that hasn't stopped.  The segments are left to the garbage
+     * collector instead of going back to the pool, where another
+     * stream could take them while they are still written.  The
+     * stream is left empty and any later writes are ignored.
+     */
+    public void discard() {
+        maxBytes = 0;
+        pool.drop(segments.size());
+        segments = new ArrayList<byte[]>();
+        nBytes = 0;
+    }
+
+    /**
+     * Give the segments back to the pool and empty the stream.
+     */
+    public void release() {
+        for (byte[] s : segments)
+            pool.give(s);
+        segments.clear();
+        nBytes = 0;
+    }
+}
@@ -18,14 +18,109 @@
 package org.apache.hcatalog.templeton;
 
 import java.io.IOException;
+import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.JobStatus;
 import org.apache.hadoop.mapred.JobProfile;
 import org.apache.hcatalog.templeton.tool.JobState;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 /**
  * QueueStatusBean - The results of an exec call.
+ *
+ * Written to json by hand, with a fixed set of the status and profile
+ * fields, rather than by walking the Hadoop objects.
  */
+@JsonSerialize(using = QueueStatusBean.Serializer.class)
 public class QueueStatusBean {
+    /**
+     * Writes a QueueStatusBean as json.
+     */
+    public static class Serializer extends JsonSerializer<QueueStatusBean> {
+        public void serialize(QueueStatusBean bean, JsonGenerator gen,
+                              SerializerProvider provider)
+            throws IOException
+        {
+            gen.writeStartObject();
+            gen.writeFieldName("status");
+            writeStatus(bean.status, gen);
+            gen.writeFieldName("profile");
+            writeProfile(bean.profile, gen);
+            gen.writeStringField("id", bean.id);
+            gen.writeStringField("parentId", bean.parentId);
+            gen.writeStringField("percentComplete", bean.percentComplete);
+            gen.writeFieldName("exitValue");
+            if (bean.exitValue == null)
+                gen.writeNull();
+            else
+                gen.writeNumber(bean.exitValue);
+            gen.writeStringField("user", bean.user);
+            gen.writeStringField("callback", bean.callback);
+            gen.writeStringField("completed", bean.completed);
+            gen.writeStringField("watchToken", bean.watchToken);
+            gen.writeEndObject();
+        }
+
+        private static void writeStatus(JobStatus status, JsonGenerator gen)
+            throws IOException
+        {
+            if (status == null) {
+                gen.writeNull();
+                return;
+            }
+            gen.writeStartObject();
+            gen.writeNumberField("startTime", status.getStartTime());
+            gen.writeStringField("username", status.getUsername());
+            gen.writeFieldName("jobID");
+            writeJobID(status.getJobID(), gen);
+            gen.writeStringField("schedulingInfo", status.getSchedulingInfo());
+            gen.writeStringField("failureInfo", status.getFailureInfo());
+            gen.writeStringField("jobId", str(status.getJobID()));
+            gen.writeStringField("jobPriority", str(status.getJobPriority()));
+            gen.writeNumberField("runState", status.getRunState());
+            gen.writeBooleanField("jobComplete", status.isJobComplete());
+            gen.writeEndObject();
+        }
+
+        private static void writeProfile(JobProfile profile, JsonGenerator gen)
+            throws IOException
+        {
+            if (profile == null) {
+                gen.writeNull();
+                return;
+            }
+            gen.writeStartObject();
+            gen.writeStringField("url", str(profile.getURL()));
+            gen.writeFieldName("jobID");
+            writeJobID(profile.getJobID(), gen);
+            gen.writeStringField("user", profile.getUser());
+            gen.writeStringField("queueName", profile.getQueueName());
+            gen.writeStringField("jobFile", profile.getJobFile());
+            gen.writeStringField("jobName", profile.getJobName());
+            gen.writeStringField("jobId", str(profile.getJobID()));
+            gen.writeEndObject();
+        }
+
+        private static void writeJobID(JobID id, JsonGenerator gen)
+            throws IOException
+        {
+            if (id == null) {
+                gen.writeNull();
+                return;
+            }
+            gen.writeStartObject();
+            gen.writeStringField("jtIdentifier", id.getJtIdentifier());
+            gen.writeNumberField("id", id.getId());
+            gen.writeEndObject();
+        }
+
+        private static String str(Object o) {
+            return (o == null) ? null : o.toString();
+        }
+    }
+
     public JobStatus status;
     public JobProfile profile;
 
@@ -36,6 +131,7 @@ public class QueueStatusBean {
     public String  user;
     public String  callback;
     public String  completed;
+    public String  watchToken;
 
     public QueueStatusBean() {}
 
@@ -61,5 +157,7 @@ public class QueueStatusBean {
         user            = state.getUser();
         callback        = state.getCallback();
         completed       = state.getCompleteStatus();
+        watchToken      = JobState.watchToken(percentComplete, completed,
+                                              exitValue, state.getChildId());
     }
 }
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.authentication.client.PseudoAuthenticator;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+
+/**
+ * Holds a GET queue/:jobid request with a waitForChange parameter
+ * until the job's watch token differs from the parameter, or the
+ * timeout passes, and then answers with the job status.
+ *
+ * The request is suspended, not blocked, so a waiting request holds
+ * no Jetty thread.  The answer is written here rather than by
+ * Jersey, so the request is never dispatched again.  Answers are
+ * fetched and written on a pool of templeton.queue.watch.threads,
+ * which also times out the waits, so neither the watch thread nor
+ * Jetty's timer ever waits on the Job Tracker.  Requests that
+ * can't wait, such as one with a bad timeout, go on to Jersey, which
+ * reports the error.
+ */
+public class QueueWatchFilter implements Filter {
+    private static final Log LOG = LogFactory.getLog(QueueWatchFilter.class);
+
+    public static final String MAX_TIMEOUT_NAME
+        = "templeton.queue.watch.max-timeout-ms";
+    public static final String THREADS_NAME
+        = "templeton.queue.watch.threads";
+
+    // The wait when there is no timeout parameter, in seconds.
+    public static final long DEFAULT_TIMEOUT = 60;
+
+    private static final Pattern QUEUE_ID = Pattern.compile(".*/queue/([^/]+)");
+
+    private static ScheduledThreadPoolExecutor answerPool = null;
+
+    private AppConfig appConf;
+
+    public QueueWatchFilter(AppConfig appConf) {
+        this.appConf = appConf;
+    }
+
+    public void init(FilterConfig config) {
+    }
+
+    public void destroy() {
+    }
+
+    /**
+     * Parse a timeout parameter, a number of seconds with an
+     * optional "s".
+     *
+     * @return The timeout in milliseconds, or null if it is invalid.
+     */
+    public static Long parseTimeout(String timeout) {
+        if (timeout == null)
+            return DEFAULT_TIMEOUT * 1000L;
+        String s = timeout.endsWith("s")
+            ? timeout.substring(0, timeout.length() - 1)
+            : timeout;
+        try {
+            long secs = Long.parseLong(s);
+            if (secs <= 0)
+                return null;
+            return secs * 1000L;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        HttpServletRequest hreq = (HttpServletRequest) req;
+        String token = hreq.getParameter("waitForChange");
+        Long timeout = parseTimeout(hreq.getParameter("timeout"));
+        Matcher m = QUEUE_ID.matcher(hreq.getRequestURI());
+        if (token == null || timeout == null
+            || ! "GET".equals(hreq.getMethod()) || ! m.matches()) {
+            chain.doFilter(req, res);
+            return;
+        }
+        String user = getUser(hreq);
+        if (user == null) {
+            writeResponse((HttpServletResponse) res, Server.noUser().getResponse());
+            return;
+        }
+
+        long max = appConf.getLong(MAX_TIMEOUT_NAME, 300000L);
+        final Watch w = new Watch(user, m.group(1));
+        Continuation c = ContinuationSupport.getContinuation(req);
+        w.continuation = c;
+        c.setTimeout(0);
+        c.addContinuationListener(w);
+        c.suspend(res);
+        w.timeout = answerPool(appConf).schedule(new Runnable() {
+                public void run() {
+                    w.expire();
+                }
+            }, Math.min(timeout, max), TimeUnit.MILLISECONDS);
+        JobWatchService.getInstance().watch(w.id, token, w);
+    }
+
+    /**
+     * The user making the request, found the same way as
+     * Server.getUser: the authenticated user, which with pseudo
+     * authentication is the user.name parameter.
+     */
+    public static String getUser(HttpServletRequest hreq) {
+        if (hreq.getUserPrincipal() != null)
+            return hreq.getUserPrincipal().getName();
+        if (! UserGroupInformation.isSecurityEnabled())
+            return hreq.getParameter(PseudoAuthenticator.USER_NAME);
+        return null;
+    }
+
+    // Write a json response.
+    private static void writeResponse(HttpServletResponse res, Response r)
+        throws IOException
+    {
+        res.setStatus(r.getStatus());
+        res.setContentType(MediaType.APPLICATION_JSON);
+        res.setCharacterEncoding("UTF-8");
+        res.getWriter().write((String) r.getEntity());
+    }
+
+    // The pool that answers the watches.  The queue is unbounded, so
+    // a task is never run by the thread that hands it over.
+    private static synchronized ScheduledThreadPoolExecutor answerPool(AppConfig conf) {
+        if (answerPool == null) {
+            answerPool = new ScheduledThreadPoolExecutor(conf.getInt(THREADS_NAME, 4),
+                new ThreadFactory() {
+                    private int n = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "queue-watch-answer-" + (++n));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return answerPool;
+    }
+
+    // One waiting request.  Run when the job changes.
+    private class Watch implements Runnable, ContinuationListener {
+        String user;
+        String id;
+        volatile Continuation continuation;
+        volatile ScheduledFuture<?> timeout;
+        private boolean done = false;
+
+        Watch(String user, String id) {
+            this.user = user;
+            this.id = id;
+        }
+
+        // The job changed.  Answer off the watch thread.
+        public void run() {
+            answerPool(appConf).execute(new Runnable() {
+                    public void run() {
+                        answer();
+                    }
+                });
+        }
+
+        // The wait is over.  Runs on the answer pool.
+        void expire() {
+            JobWatchService.getInstance().cancel(id, this);
+            answer();
+        }
+
+        // Not used, since the continuation has no timeout of its own.
+        // Answer off Jetty's timer all the same.
+        public void onTimeout(Continuation c) {
+            answerPool(appConf).execute(new Runnable() {
+                    public void run() {
+                        expire();
+                    }
+                });
+        }
+
+        public void onComplete(Continuation c) {
+            JobWatchService.getInstance().cancel(id, this);
+            ScheduledFuture<?> t = timeout;
+            if (t != null)
+                t.cancel(false);
+        }
+
+        // Write the job status and finish the request, once.
+        private synchronized void answer() {
+            if (done)
+                return;
+            done = true;
+
+            Response r;
+            try {
+                QueueStatusBean bean
+                    = new StatusDelegator(appConf).run(user, id, null);
+                r = Response.ok(JsonBuilder.mapToJson(bean)).build();
+            } catch (SimpleWebException e) {
+                r = e.getResponse();
+            } catch (Throwable e) {
+                LOG.warn("Unable to get the status of " + id, e);
+                r = SimpleWebException.buildMessage(500, null, e.getMessage());
+            }
+
+            try {
+                writeResponse((HttpServletResponse) continuation.getServletResponse(), r);
+            } catch (IOException e) {
+                LOG.info("Unable to answer the watch of " + id + ": "
+                         + e.getMessage());
+            } finally {
+                continuation.complete();
+            }
+        }
+    }
+}
@@ -28,7 +28,6 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.io.Text;
@@ -172,19 +171,24 @@ public class SecureProxySupport {
     private String buildHcatDelegationToken(String user)
         throws IOException, InterruptedException, MetaException, TException
     {
-        HiveConf c = new HiveConf();
-        final HiveMetaStoreClient client = new HiveMetaStoreClient(c);
-        LOG.info("user: " + user + " loginUser: " + UserGroupInformation.getLoginUser().getUserName());
-        final TokenWrapper twrapper = new TokenWrapper();
-        final UserGroupInformation ugi = UgiFactory.getUgi(user);
-        String s = ugi.doAs(new PrivilegedExceptionAction<String>() {
-                                public String run()
-                                    throws IOException, MetaException, TException
-                                {
-                                    String u = ugi.getUserName();
-                                    return client.getDelegationToken(u);
-                                }
-                            });
-        return s;
+        MetaStoreClientPool pool = MetaStoreClientPool.getInstance();
+        final HiveMetaStoreClient client = pool.borrow(null);
+        boolean isBroken = true;
+        try {
+            LOG.info("user: " + user + " loginUser: " + UserGroupInformation.getLoginUser().getUserName());
+            final UserGroupInformation ugi = UgiFactory.getUgi(user);
+            String s = ugi.doAs(new PrivilegedExceptionAction<String>() {
+                                    public String run()
+                                        throws IOException, MetaException, TException
+                                    {
+                                        String u = ugi.getUserName();
+                                        return client.getDelegationToken(u);
+                                    }
+                                });
+            isBroken = false;
+            return s;
+        } finally {
+            pool.release(null, client, isBroken);
+        }
     }
 }
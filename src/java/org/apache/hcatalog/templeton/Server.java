@@ -35,7 +35,9 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
@@ -53,6 +55,12 @@ import org.apache.hcatalog.templeton.tool.TempletonUtils;
 public class Server {
     public static final String VERSION = "v1";
 
+    /**
+     * The request header with the longest time in milliseconds the
+     * client will wait for a free process slot.
+     */
+    public static final String MAX_WAIT_HEADER = "X-Templeton-Max-Wait";
+
     /**
      * The status message.  Always "ok"
      */
@@ -108,6 +116,12 @@ public class Server {
     // The uri requested
     private @Context UriInfo theUriInfo;
 
+    // The request, for the conditional GET headers
+    private @Context Request theRequest;
+
+    // The request headers
+    private @Context HttpHeaders theHeaders;
+
     private static final Log LOG = LogFactory.getLog(Server.class);
 
     /**
@@ -139,6 +153,33 @@ public class Server {
         return SUPPORTED_VERSIONS;
     }
 
+    /**
+     * Statistics from the shared services of this server.
+     */
+    @GET
+    @Path("stats")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("metastorePool", MetaStoreClientPool.getInstance().stats());
+        res.put("jobTrackerPool", JobTrackerPool.getInstance().stats());
+        res.put("jobStatusSnapshot", JobStatusSnapshot.getInstance().stats());
+        res.put("queueWatch", JobWatchService.getInstance().stats());
+        res.put("ddlCache", MetadataCache.getInstance().stats());
+        res.put("ddlSingleFlight", HcatDelegator.singleFlightStats());
+        res.put("ddlAsync", AsyncDdlService.getInstance().stats());
+        if (execService instanceof ExecServiceImpl)
+            res.put("execSlots", ((ExecServiceImpl) execService).slotStats());
+        res.put("execBuffers", OutputBufferPool.getInstance().stats());
+        res.put("execTimer", ExecTimer.getInstance().stats());
+        res.put("execPumps", StreamPumps.getInstance().stats());
+        if (execService instanceof HcatWorkerExecService)
+            res.put("hcatWorkers", ((HcatWorkerExecService) execService).stats());
+        if (execService instanceof SpawnExecService)
+            res.put("spawnServer", ((SpawnExecService) execService).stats());
+        return res;
+    }
+
     /**
      * Execute an hcat ddl expression on the local box.  It is run
      * as the authenticated user and rate limited.
@@ -146,17 +187,28 @@ public class Server {
     @POST
     @Path("ddl")
     @Produces({MediaType.APPLICATION_JSON})
-    public ExecBean ddl(@FormParam("exec") String exec,
-                        @FormParam("group") String group,
-                        @FormParam("permissions") String permissions)
+    public Response ddl(@FormParam("exec") final String exec,
+                        @FormParam("group") final String group,
+                        @FormParam("permissions") final String permissions,
+                        @FormParam("async") boolean async)
         throws NotAuthorizedException, BusyException, BadParam,
         ExecuteException, IOException
     {
         verifyUser();
         verifyParam(exec, "exec");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.run(getUser(), exec, false, group, permissions);
+        final String user = getUser();
+        return runDdl(async, exec, new AsyncDdlService.DdlCall() {
+                public Response run(HcatDelegator d) throws Throwable {
+                    try {
+                        return Response.ok(d.run(user, exec, false, group, permissions))
+                            .build();
+                    } finally {
+                        // Any statement could change the metadata.
+                        MetadataCache.getInstance().invalidateAll();
+                    }
+                }
+            });
     }
 
     /**
@@ -173,7 +225,7 @@ public class Server {
         verifyUser();
         verifyDdlParam(db, ":db");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         if (! TempletonUtils.isset(tablePattern))
             tablePattern = "*";
         return d.listTables(getUser(), db, tablePattern);
@@ -196,7 +248,7 @@ public class Server {
         verifyDdlParam(table, ":table");
         desc.table = table;
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.createTable(getUser(), db, desc);
     }
 
@@ -206,10 +258,11 @@ public class Server {
     @PUT
     @Path("ddl/database/{db}/table/{existingTable}/like/{newTable}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response createTableLike(@PathParam("db") String db,
+    public Response createTableLike(@PathParam("db") final String db,
                                     @PathParam("existingTable") String existingTable,
                                     @PathParam("newTable") String newTable,
-                                    TableLikeDesc desc)
+                                    @QueryParam("async") boolean async,
+                                    final TableLikeDesc desc)
         throws SimpleWebException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
@@ -220,8 +273,13 @@ public class Server {
         desc.existingTable = existingTable;
         desc.newTable = newTable;
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.createTableLike(getUser(), db, desc);
+        final String user = getUser();
+        return runDdl(async, "create table " + db + "." + newTable + " like " + existingTable,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.createTableLike(user, db, desc);
+                          }
+                      });
     }
 
     /**
@@ -242,11 +300,21 @@ public class Server {
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        if ("extended".equals(format))
-            return d.descExtendedTable(getUser(), db, table);
+        HcatDelegator d = hcatDelegator();
+        boolean extended = "extended".equals(format);
+        String tag = d.tableTag(getUser(), db, table,
+                                extended ? "table-extended" : "table");
+        Response unchanged = JsonBuilder.notModified(theRequest, tag);
+        if (unchanged != null)
+            return unchanged;
+
+        Response res;
+        if (extended)
+            res = d.descExtendedTable(getUser(), db, table);
         else
-            return d.descTable(getUser(), db, table, false);
+            res = d.descTable(getUser(), db, table, false);
+        return JsonBuilder.withTag(theRequest, res,
+                                   extended ? "table-extended" : "table", tag);
     }
 
     /**
@@ -255,11 +323,12 @@ public class Server {
     @DELETE
     @Path("ddl/database/{db}/table/{table}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response dropTable(@PathParam("db") String db,
-                              @PathParam("table") String table,
-                              @QueryParam("ifExists") boolean ifExists,
-                              @QueryParam("group") String group,
-                              @QueryParam("permissions") String permissions)
+    public Response dropTable(@PathParam("db") final String db,
+                              @PathParam("table") final String table,
+                              @QueryParam("ifExists") final boolean ifExists,
+                              @QueryParam("group") final String group,
+                              @QueryParam("permissions") final String permissions,
+                              @QueryParam("async") boolean async)
         throws HcatException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
@@ -267,8 +336,14 @@ public class Server {
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.dropTable(getUser(), db, table, ifExists, group, permissions);
+        final String user = getUser();
+        return runDdl(async, "drop table " + db + "." + table,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.dropTable(user, db, table, ifExists,
+                                                 group, permissions);
+                          }
+                      });
     }
 
     /**
@@ -290,7 +365,7 @@ public class Server {
         verifyDdlParam(oldTable, ":table");
         verifyDdlParam(newTable, "rename");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.renameTable(getUser(), db, oldTable, newTable, group, permissions);
     }
 
@@ -311,7 +386,7 @@ public class Server {
         verifyDdlParam(table, ":table");
         verifyDdlParam(property, ":property");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.descTableProperty(getUser(), db, table, property);
     }
 
@@ -330,7 +405,7 @@ public class Server {
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.listTableProperties(getUser(), db, table);
     }
 
@@ -353,38 +428,130 @@ public class Server {
         verifyDdlParam(property, ":property");
         desc.name = property;
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.addOneTableProperty(getUser(), db, table, desc);
     }
 
     /**
-     * List all the partitions in an hcat table.
+     * List all the partitions in an hcat table.  A filter, offset or
+     * limit returns one page of the partitions.  A streamed list has
+     * no ETag unless the metadata cache is on.
      */
     @GET
     @Path("ddl/database/{db}/table/{table}/partition")
     @Produces(MediaType.APPLICATION_JSON)
     public Response listPartitions(@PathParam("db") String db,
-                                   @PathParam("table") String table)
+                                   @PathParam("table") String table,
+                                   @QueryParam("filter") String filter,
+                                   @QueryParam("offset") Integer offset,
+                                   @QueryParam("limit") Integer limit)
         throws HcatException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
         verifyUser();
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
+        if (offset != null && offset < 0)
+            throw new BadParam("Invalid offset parameter");
+        if (limit != null && limit < 0)
+            throw new BadParam("Invalid limit parameter");
+
+        HcatDelegator d = hcatDelegator();
+        String op = "partitions";
+        if (filter != null || offset != null || limit != null)
+            op += "-" + Integer.toHexString((filter + ";" + offset + ";" + limit).hashCode());
+        String tag = d.partitionsTag(getUser(), db, table, op);
+        Response unchanged = JsonBuilder.notModified(theRequest, tag);
+        if (unchanged != null)
+            return unchanged;
+
+        Response res;
+        if (filter == null && offset == null && limit == null)
+            res = d.listPartitions(getUser(), db, table);
+        else
+            res = d.listPartitions(getUser(), db, table, filter,
+                                   (offset == null) ? 0 : offset,
+                                   (limit == null) ? -1 : limit);
+        return JsonBuilder.withTag(theRequest, res, op, tag);
+    }
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.listPartitions(getUser(), db, table);
+    /**
+     * Create a list of partitions in an hcat table.
+     */
+    @PUT
+    @Path("ddl/database/{db}/table/{table}/partition")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response addPartitions(@PathParam("db") final String db,
+                                  @PathParam("table") final String table,
+                                  @QueryParam("async") boolean async,
+                                  final PartitionListDesc desc)
+        throws NotAuthorizedException, BusyException, BadParam,
+        ExecuteException, IOException
+    {
+        verifyUser();
+        verifyDdlParam(db, ":db");
+        verifyDdlParam(table, ":table");
+        if (desc == null || desc.partitions == null || desc.partitions.isEmpty())
+            throw new BadParam("Missing partitions parameter");
+        for (PartitionDesc part : desc.partitions) {
+            if (part == null)
+                throw new BadParam("Missing partition");
+            verifyParam(part.partition, "partition");
+        }
+
+        final String user = getUser();
+        return runDdl(async, "add partitions to " + db + "." + table,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.addPartitions(user, db, table, desc);
+                          }
+                      });
+    }
+
+    /**
+     * Drop a list of partitions in an hcat table.
+     */
+    @DELETE
+    @Path("ddl/database/{db}/table/{table}/partition")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response dropPartitions(@PathParam("db") final String db,
+                                   @PathParam("table") final String table,
+                                   @QueryParam("partition") final List<String> partitions,
+                                   @QueryParam("ifExists") final boolean ifExists,
+                                   @QueryParam("continueOnError") final boolean continueOnError,
+                                   @QueryParam("group") final String group,
+                                   @QueryParam("permissions") final String permissions,
+                                   @QueryParam("async") boolean async)
+        throws NotAuthorizedException, BusyException, BadParam,
+        ExecuteException, IOException
+    {
+        verifyUser();
+        verifyDdlParam(db, ":db");
+        verifyDdlParam(table, ":table");
+        verifyParam(partitions, "partition");
+
+        final String user = getUser();
+        return runDdl(async, "drop partitions from " + db + "." + table,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.dropPartitions(user, db, table, partitions,
+                                                      ifExists, continueOnError,
+                                                      group, permissions);
+                          }
+                      });
     }
 
     /**
-     * Describe a single partition in an hcat table.
+     * Describe a single partition in an hcat table.  The extended
+     * format adds the file stats of the partition location.
      */
     @GET
     @Path("ddl/database/{db}/table/{table}/partition/{partition}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response descPartition(@PathParam("db") String db,
                                   @PathParam("table") String table,
-                                  @PathParam("partition") String partition)
+                                  @PathParam("partition") String partition,
+                                  @QueryParam("format") String format)
         throws HcatException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
@@ -393,8 +560,9 @@ public class Server {
         verifyDdlParam(table, ":table");
         verifyParam(partition, ":partition");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.descOnePartition(getUser(), db, table, partition);
+        HcatDelegator d = hcatDelegator();
+        return d.descOnePartition(getUser(), db, table, partition,
+                                  "extended".equals(format));
     }
 
     /**
@@ -415,7 +583,7 @@ public class Server {
         verifyDdlParam(table, ":table");
         verifyParam(partition, ":partition");
         desc.partition = partition;
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.addOnePartition(getUser(), db, table, desc);
     }
 
@@ -425,12 +593,13 @@ public class Server {
     @DELETE
     @Path("ddl/database/{db}/table/{table}/partition/{partition}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response dropPartition(@PathParam("db") String db,
-                                  @PathParam("table") String table,
-                                  @PathParam("partition") String partition,
-                                  @QueryParam("ifExists") boolean ifExists,
-                                  @QueryParam("group") String group,
-                                  @QueryParam("permissions") String permissions)
+    public Response dropPartition(@PathParam("db") final String db,
+                                  @PathParam("table") final String table,
+                                  @PathParam("partition") final String partition,
+                                  @QueryParam("ifExists") final boolean ifExists,
+                                  @QueryParam("group") final String group,
+                                  @QueryParam("permissions") final String permissions,
+                                  @QueryParam("async") boolean async)
         throws HcatException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
@@ -438,9 +607,14 @@ public class Server {
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
         verifyParam(partition, ":partition");
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.dropPartition(getUser(), db, table, partition, ifExists,
-                               group, permissions);
+        final String user = getUser();
+        return runDdl(async, "drop partition " + partition + " from " + db + "." + table,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.dropPartition(user, db, table, partition,
+                                                     ifExists, group, permissions);
+                          }
+                      });
     }
 
     /**
@@ -455,7 +629,7 @@ public class Server {
     {
         verifyUser();
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         if (! TempletonUtils.isset(dbPattern))
             dbPattern = "*";
         return d.listDatabases(getUser(), dbPattern);
@@ -474,8 +648,16 @@ public class Server {
     {
         verifyUser();
         verifyDdlParam(db, ":db");
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.descDatabase(getUser(), db, "extended".equals(format));
+        HcatDelegator d = hcatDelegator();
+        boolean extended = "extended".equals(format);
+        String tag = d.databaseTag(getUser(), db,
+                                   extended ? "database-extended" : "database");
+        Response unchanged = JsonBuilder.notModified(theRequest, tag);
+        if (unchanged != null)
+            return unchanged;
+
+        return JsonBuilder.withTag(theRequest, d.descDatabase(getUser(), db, extended),
+                                   extended ? "database-extended" : "database", tag);
     }
 
     /**
@@ -492,7 +674,7 @@ public class Server {
         verifyUser();
         verifyDdlParam(db, ":db");
         desc.database = db;
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.createDatabase(getUser(), desc);
     }
 
@@ -502,11 +684,12 @@ public class Server {
     @DELETE
     @Path("ddl/database/{db}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response dropDatabase(@PathParam("db") String db,
-                                 @QueryParam("ifExists") boolean ifExists,
-                                 @QueryParam("option") String option,
-                                 @QueryParam("group") String group,
-                                 @QueryParam("permissions") String permissions)
+    public Response dropDatabase(@PathParam("db") final String db,
+                                 @QueryParam("ifExists") final boolean ifExists,
+                                 @QueryParam("option") final String option,
+                                 @QueryParam("group") final String group,
+                                 @QueryParam("permissions") final String permissions,
+                                 @QueryParam("async") boolean async)
         throws HcatException, NotAuthorizedException, BusyException,
         BadParam, ExecuteException, IOException
     {
@@ -514,9 +697,14 @@ public class Server {
         verifyDdlParam(db, ":db");
         if (TempletonUtils.isset(option))
             verifyDdlParam(option, "option");
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.dropDatabase(getUser(), db, ifExists, option,
-                              group, permissions);
+        final String user = getUser();
+        return runDdl(async, "drop database " + db,
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.dropDatabase(user, db, ifExists, option,
+                                                    group, permissions);
+                          }
+                      });
     }
 
     /**
@@ -535,8 +723,14 @@ public class Server {
         verifyDdlParam(db, ":db");
         verifyDdlParam(table, ":table");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
-        return d.listColumns(getUser(), db, table);
+        HcatDelegator d = hcatDelegator();
+        String tag = d.tableTag(getUser(), db, table, "columns");
+        Response unchanged = JsonBuilder.notModified(theRequest, tag);
+        if (unchanged != null)
+            return unchanged;
+
+        return JsonBuilder.withTag(theRequest, d.listColumns(getUser(), db, table),
+                                   "columns", tag);
     }
 
     /**
@@ -556,7 +750,7 @@ public class Server {
         verifyDdlParam(table, ":table");
         verifyParam(column, ":column");
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.descOneColumn(getUser(), db, table, column);
     }
 
@@ -580,10 +774,52 @@ public class Server {
         verifyParam(desc.type, "type");
         desc.name = column;
 
-        HcatDelegator d = new HcatDelegator(appConf, execService);
+        HcatDelegator d = hcatDelegator();
         return d.addOneColumn(getUser(), db, table, desc);
     }
 
+    /**
+     * Run a list of ddl operations in order, using as few hcat calls
+     * as possible.  Returns a result for each operation.
+     */
+    @POST
+    @Path("ddl/batch")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response ddlBatch(@QueryParam("async") boolean async,
+                             final BatchDesc desc)
+        throws NotAuthorizedException, BusyException, BadParam,
+        ExecuteException, IOException
+    {
+        verifyUser();
+        if (desc == null || desc.operations == null || desc.operations.isEmpty())
+            throw new BadParam("Missing operations parameter");
+        for (BatchOpDesc op : desc.operations)
+            verifyBatchOp(op);
+
+        final String user = getUser();
+        return runDdl(async, "batch of " + desc.operations.size() + " operations",
+                      new AsyncDdlService.DdlCall() {
+                          public Response run(HcatDelegator d) throws Throwable {
+                              return d.batch(user, desc);
+                          }
+                      });
+    }
+
+    /**
+     * The status of a ddl call run with async=true, and its result
+     * once it is done.
+     */
+    @GET
+    @Path("ddl/ticket/{ticket}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> ddlTicket(@PathParam("ticket") String ticket)
+        throws NotAuthorizedException, BadParam, IOException
+    {
+        verifyUser();
+        verifyParam(ticket, ":ticket");
+        return AsyncDdlService.getInstance().status(getUser(), ticket);
+    }
+
     /**
      * Run a MapReduce Streaming job.
      */
@@ -697,14 +933,22 @@ public class Server {
     @GET
     @Path("queue/{jobid}")
     @Produces({MediaType.APPLICATION_JSON})
-    public QueueStatusBean showQueueId(@PathParam("jobid") String jobid)
+    public QueueStatusBean showQueueId(@PathParam("jobid") String jobid,
+                                       @QueryParam("maxStaleness") Long maxStaleness,
+                                       @QueryParam("waitForChange") String waitForChange,
+                                       @QueryParam("timeout") String timeout)
         throws NotAuthorizedException, BadParam, IOException
     {
         verifyUser();
         verifyParam(jobid, ":jobid");
+        // A valid wait is held by QueueWatchFilter and never gets here.
+        if (waitForChange != null && QueueWatchFilter.parseTimeout(timeout) == null)
+            throw new BadParam("Invalid timeout parameter");
+        if (maxStaleness != null && maxStaleness < 0)
+            throw new BadParam("Invalid maxStaleness parameter");
 
         StatusDelegator d = new StatusDelegator(appConf);
-        return d.run(getUser(), jobid);
+        return d.run(getUser(), jobid, maxStaleness);
     }
 
     /**
@@ -724,18 +968,48 @@ public class Server {
     }
 
     /**
-     * Return all the known job ids for this user.
+     * Return all the known job ids for this user, or the status of
+     * each of the given job ids.
      */
     @GET
     @Path("queue")
     @Produces({MediaType.APPLICATION_JSON})
-    public List<String> showQueueList()
+    public Response showQueueList(@QueryParam("jobid") List<String> jobids,
+                                  @QueryParam("maxStaleness") Long maxStaleness)
         throws NotAuthorizedException, BadParam, IOException
     {
         verifyUser();
+        if (maxStaleness != null && maxStaleness < 0)
+            throw new BadParam("Invalid maxStaleness parameter");
+
+        if (jobids != null && ! jobids.isEmpty())
+            return showQueueIds(jobids, maxStaleness);
 
         ListDelegator d = new ListDelegator(appConf);
-        return d.run(getUser());
+        return Response.ok(d.run(getUser(), maxStaleness)).build();
+    }
+
+    /**
+     * Return the status of each of the job ids.  The same as GET
+     * queue with jobid parameters, for lists too long for a URL.
+     */
+    @POST
+    @Path("queue")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response showQueueIds(@FormParam("jobid") List<String> jobids,
+                                 @FormParam("maxStaleness") Long maxStaleness)
+        throws NotAuthorizedException, BadParam, IOException
+    {
+        verifyUser();
+        verifyParam(jobids, "jobid");
+        if (maxStaleness != null && maxStaleness < 0)
+            throw new BadParam("Invalid maxStaleness parameter");
+        int maxIds = appConf.getInt(StatusDelegator.MAX_IDS_NAME, 1000);
+        if (jobids.size() > maxIds)
+            throw new BadParam("Too many jobid parameters, the most is " + maxIds);
+
+        StatusDelegator d = new StatusDelegator(appConf);
+        return Response.ok(d.runAll(getUser(), jobids, maxStaleness)).build();
     }
 
     /**
@@ -751,18 +1025,71 @@ public class Server {
         return d.run(jobid);
     }
 
+    /**
+     * Run a ddl call now, or queue it and return a ticket if async is
+     * set.
+     */
+    public Response runDdl(boolean async, String description,
+                           AsyncDdlService.DdlCall call)
+        throws NotAuthorizedException, BusyException, BadParam,
+        ExecuteException, IOException
+    {
+        if (async)
+            return AsyncDdlService.getInstance().submit(getUser(), description, call);
+
+        try {
+            return call.run(hcatDelegator());
+        } catch (SimpleWebException e) {
+            return e.getResponse();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * An HcatDelegator for this request.  It waits for a process slot
+     * no longer than the client asked for in the max wait header.
+     */
+    public HcatDelegator hcatDelegator()
+        throws BadParam
+    {
+        HcatDelegator d = new HcatDelegator(appConf, execService);
+        String wait = (theHeaders == null) ? null
+            : theHeaders.getRequestHeaders().getFirst(MAX_WAIT_HEADER);
+        if (TempletonUtils.isset(wait)) {
+            try {
+                d.setMaxWait(Math.max(0, Long.parseLong(wait.trim())));
+            } catch (NumberFormatException e) {
+                throw new BadParam("Invalid " + MAX_WAIT_HEADER + " header: " + wait);
+            }
+        }
+        return d;
+    }
+
     /**
      * Verify that we have a valid user.  Throw an exception if invalid.
      */
     public void verifyUser()
         throws NotAuthorizedException
     {
-        if (getUser() == null) {
-            String msg = "No user found.";
-            if (! UserGroupInformation.isSecurityEnabled())
-                msg += "  Missing " + PseudoAuthenticator.USER_NAME + " parameter.";
-            throw new NotAuthorizedException(msg);
-        }
+        if (getUser() == null)
+            throw noUser();
+    }
+
+    /**
+     * The error for a request with no user.
+     */
+    public static NotAuthorizedException noUser() {
+        String msg = "No user found.";
+        if (! UserGroupInformation.isSecurityEnabled())
+            msg += "  Missing " + PseudoAuthenticator.USER_NAME + " parameter.";
+        return new NotAuthorizedException(msg);
     }
 
     /**
@@ -785,6 +1112,33 @@ public class Server {
             throw new BadParam("Missing " + name + " parameter");
     }
 
+    /**
+     * Verify one operation of a ddl batch.  Throw an exception if
+     * invalid.
+     */
+    public void verifyBatchOp(BatchOpDesc op)
+        throws BadParam
+    {
+        if (op == null)
+            throw new BadParam("Missing operation");
+        verifyDdlParam(op.database, "database");
+        verifyDdlParam(op.table, "table");
+        if (op.opName() == null)
+            throw new BadParam("Each operation needs one of createTable, "
+                               + "addPartition, addProperty, addColumn "
+                               + "or dropPartition");
+        if (op.addPartition != null)
+            verifyParam(op.addPartition.partition, "partition");
+        if (op.dropPartition != null)
+            verifyParam(op.dropPartition.partition, "partition");
+        if (op.addProperty != null)
+            verifyDdlParam(op.addProperty.name, "name");
+        if (op.addColumn != null) {
+            verifyParam(op.addColumn.name, "name");
+            verifyParam(op.addColumn.type, "type");
+        }
+    }
+
     public static final Pattern DDL_ID = Pattern.compile("[a-zA-Z]\\w*");
 
     /**
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Share one run of a call between everyone who makes the same call
+ * at the same time.  The first caller for a key runs the call and
+ * any caller that arrives with the same key before it finishes waits
+ * and gets the same result, or the same exception.
+ *
+ * Nothing is kept once the call finishes, so this is not a cache.
+ */
+public class SingleFlight<V> {
+    /**
+     * A call that may be shared.
+     */
+    public interface Call<V> {
+        public V run() throws Throwable;
+    }
+
+    // One running call.
+    private static class Flight<V> {
+        V result;
+        Throwable error;
+        boolean done = false;
+    }
+
+    private final HashMap<String, Flight<V>> inFlight
+        = new HashMap<String, Flight<V>>();
+
+    // Stats
+    private long executions = 0;
+    private long shared = 0;
+
+    /**
+     * Run the call, or wait for the same call that is already
+     * running.
+     *
+     * @param key  Calls with equal keys must return the same result
+     * @param call The call
+     * @return The result of the call
+     */
+    public V run(String key, Call<V> call)
+        throws Throwable
+    {
+        Flight<V> f;
+        boolean isLeader = false;
+        synchronized (this) {
+            f = inFlight.get(key);
+            if (f == null) {
+                f = new Flight<V>();
+                inFlight.put(key, f);
+                isLeader = true;
+                ++executions;
+            } else
+                ++shared;
+        }
+
+        if (isLeader) {
+            try {
+                f.result = call.run();
+            } catch (Throwable t) {
+                f.error = t;
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(key);
+                }
+                synchronized (f) {
+                    f.done = true;
+                    f.notifyAll();
+                }
+            }
+        } else {
+            synchronized (f) {
+                while (! f.done)
+                    f.wait();
+            }
+        }
+
+        if (f.error != null)
+            throw f.error;
+        return f.result;
+    }
+
+    /**
+     * The number of calls run, and the number of callers that shared
+     * a call instead of running their own.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("inFlight", inFlight.size());
+        res.put("executions", executions);
+        res.put("shared", shared);
+        return res;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hcatalog.templeton.tool.SpawnClient;
+import org.apache.hcatalog.templeton.tool.SpawnServer;
+import org.apache.hcatalog.templeton.tool.TempletonUtils;
+
+/**
+ * Start the local programs from a SpawnServer child process instead
+ * of forking this server.  The spawn server is a small JVM started on
+ * first use, so forking it is cheap no matter how large our heap is.
+ *
+ * The process slots, timeouts and output limits are the same as
+ * ExecServiceImpl.  If the spawn server can't be started or reached,
+ * the call is made by forking this server instead.  A call that was
+ * running when the spawn server died fails, since the program may
+ * already have made its changes.
+ * Streaming calls are always forked from this server, since the spawn
+ * server returns the whole output at once.
+ */
+public class SpawnExecService extends ExecServiceImpl {
+    private static final Log LOG = LogFactory.getLog(SpawnExecService.class);
+
+    public static final String ENABLED_NAME
+        = "templeton.exec.spawn-server.enabled";
+    public static final String JAVA_OPTS_NAME
+        = "templeton.exec.spawn-server.java-opts";
+
+    /**
+     * Is the spawn server turned on?
+     */
+    public static boolean isEnabled(AppConfig appConf) {
+        return appConf.getBoolean(ENABLED_NAME, false);
+    }
+
+    private SpawnClient client;
+
+    protected SpawnExecService() {
+        super();
+        client = new SpawnClient(serverCommand());
+    }
+
+    /**
+     * Run the program in the spawn server.
+     */
+    public ExecBean runUnlimited(String program, List<String> args,
+                                 Map<String, String> env, int timeout)
+        throws NotAuthorizedException, ExecuteException, IOException
+    {
+        String path = validateProgram(program);
+        LOG.info("Running in spawn server: " + path + " " + args);
+        try {
+            return client.run(path, args, execEnv(env), timeout,
+                              appConf.getInt(AppConfig.EXEC_MAX_BYTES_NAME, -1),
+                              appConf.get(AppConfig.EXEC_ENCODING_NAME));
+        } catch (SpawnClient.LostException e) {
+            LOG.warn("Spawn server failed, running directly: " + e);
+            return super.runUnlimited(program, args, env, timeout);
+        }
+    }
+
+    /**
+     * The spawn server statistics.
+     */
+    public Map<String, Object> stats() {
+        return client.stats();
+    }
+
+    // Start the server with our own java and a small heap.
+    private List<String> serverCommand() {
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        String opts = appConf.get(JAVA_OPTS_NAME);
+        if (TempletonUtils.isset(opts))
+            for (String opt : opts.trim().split("\\s+"))
+                cmd.add(opt);
+        cmd.add("-cp");
+        cmd.add(appConf.templetonJar());
+        cmd.add(SpawnServer.class.getName());
+        return cmd;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+/**
+ * A json object kept as its text, with top level keys added or
+ * removed.  Most results only gain a key or two before they are sent,
+ * so there is no need to build the whole object: the text is copied
+ * token by token on the way out, and the changed keys are written
+ * after it.
+ *
+ * The text is read once up front, to check it and note the top level
+ * keys and simple values, so that looking up a key such as "error"
+ * is cheap.  Anything else that needs the contents, such as looking
+ * up a nested value or walking the entries, parses the whole object
+ * into a map once, after which this behaves as that map.
+ */
+@JsonSerialize(using = SplicedJson.Serializer.class)
+public class SplicedJson extends AbstractMap<String, Object> {
+    /**
+     * Writes a SplicedJson as json.
+     */
+    public static class Serializer extends JsonSerializer<SplicedJson> {
+        public void serialize(SplicedJson value, JsonGenerator gen,
+                              SerializerProvider provider)
+            throws IOException
+        {
+            value.writeTo(gen);
+        }
+    }
+
+    private final String json;
+    private final Set<String> keys = new HashSet<String>();
+    private final Map<String, Object> simple = new HashMap<String, Object>();
+    private final LinkedHashMap<String, Object> puts = new LinkedHashMap<String, Object>();
+    private final Set<String> removes = new HashSet<String>();
+    private Map<String, Object> map;
+
+    /**
+     * Read the top level of a json object.
+     *
+     * @throws IOException if the text is not a json object
+     */
+    public SplicedJson(String json)
+        throws IOException
+    {
+        this.json = json;
+        JsonParser p = JsonBuilder.jsonFactory().createJsonParser(json);
+        try {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Not a json object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                keys.add(name);
+                JsonToken t = p.nextToken();
+                if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+                    simple.remove(name);
+                    p.skipChildren();
+                } else {
+                    simple.put(name, simpleValue(p, t));
+                }
+            }
+            if (p.getCurrentToken() != JsonToken.END_OBJECT)
+                throw new IOException("Bad json object");
+        } finally {
+            p.close();
+        }
+    }
+
+    // The value of a scalar token, as ObjectMapper would make it.
+    private static Object simpleValue(JsonParser p, JsonToken t)
+        throws IOException
+    {
+        switch (t) {
+        case VALUE_STRING:
+            return p.getText();
+        case VALUE_NUMBER_INT:
+            return p.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return p.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+
+    // The whole object, parsed on first use.
+    private Map<String, Object> map() {
+        if (map == null) {
+            try {
+                map = JsonBuilder.jsonToMap(json);
+            } catch (IOException e) {
+                // Already read once in the constructor.
+                throw new IllegalStateException(e);
+            }
+            for (String k : removes)
+                map.remove(k);
+            map.putAll(puts);
+        }
+        return map;
+    }
+
+    /**
+     * Set a top level key.  Until the object is parsed, the old value
+     * returned is null unless it was a simple value.
+     */
+    public Object put(String key, Object val) {
+        if (map != null)
+            return map.put(key, val);
+        Object old = peek(key);
+        removes.remove(key);
+        puts.put(key, val);
+        return old;
+    }
+
+    /**
+     * Remove a top level key.  Until the object is parsed, the old
+     * value returned is null unless it was a simple value.
+     */
+    public Object remove(Object key) {
+        if (map != null)
+            return map.remove(key);
+        Object old = peek(key);
+        puts.remove(key);
+        if (keys.contains(key))
+            removes.add((String) key);
+        return old;
+    }
+
+    public boolean containsKey(Object key) {
+        if (map != null)
+            return map.containsKey(key);
+        if (puts.containsKey(key))
+            return true;
+        return keys.contains(key) && ! removes.contains(key);
+    }
+
+    public Object get(Object key) {
+        if (map == null && (puts.containsKey(key) || ! containsKey(key)
+                            || simple.containsKey(key)))
+            return peek(key);
+        return map().get(key);
+    }
+
+    // The value of a key, if it is known without parsing.
+    private Object peek(Object key) {
+        if (puts.containsKey(key))
+            return puts.get(key);
+        if (! keys.contains(key) || removes.contains(key))
+            return null;
+        return simple.get(key);
+    }
+
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return map().entrySet();
+    }
+
+    /**
+     * Write the object, copying the original text where it is
+     * unchanged.
+     */
+    public void writeTo(JsonGenerator gen)
+        throws IOException
+    {
+        if (map != null) {
+            gen.writeObject(map);
+            return;
+        }
+
+        gen.writeStartObject();
+        JsonParser p = JsonBuilder.jsonFactory().createJsonParser(json);
+        try {
+            p.nextToken();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                if (puts.containsKey(name) || removes.contains(name)) {
+                    p.nextToken();
+                    p.skipChildren();
+                } else {
+                    gen.copyCurrentStructure(p);
+                }
+            }
+        } finally {
+            p.close();
+        }
+        for (Map.Entry<String, Object> e : puts.entrySet()) {
+            gen.writeFieldName(e.getKey());
+            gen.writeObject(e.getValue());
+        }
+        gen.writeEndObject();
+    }
+}
@@ -18,15 +18,25 @@
 package org.apache.hcatalog.templeton;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.JobProfile;
 import org.apache.hadoop.mapred.JobStatus;
-import org.apache.hadoop.mapred.JobTracker;
 import org.apache.hadoop.mapred.TempletonJobTracker;
-import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hcatalog.templeton.tool.JobState;
+import org.apache.hcatalog.templeton.tool.TempletonStorage;
 
 /**
  * Fetch the status of a given job id in the queue.
@@ -34,6 +44,11 @@ import org.apache.hcatalog.templeton.tool.JobState;
 public class StatusDelegator extends TempletonDelegator {
     private static final Log LOG = LogFactory.getLog(StatusDelegator.class);
 
+    public static final String THREADS_NAME = "templeton.queue.status.threads";
+    public static final String MAX_IDS_NAME = "templeton.queue.status.max-ids";
+
+    private static ThreadPoolExecutor statusPool = null;
+
     public StatusDelegator(AppConfig appConf) {
         super(appConf);
     }
@@ -41,28 +56,159 @@ public class StatusDelegator extends TempletonDelegator {
     public QueueStatusBean run(String user, String id)
         throws NotAuthorizedException, BadParam, IOException
     {
-        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+        return run(user, id, null);
+    }
+
+    /**
+     * The job status, from the job status snapshot when it is no
+     * older than maxStaleness milliseconds.
+     */
+    public QueueStatusBean run(String user, String id, Long maxStaleness)
+        throws NotAuthorizedException, BadParam, IOException
+    {
+        return status(user, id, maxStaleness, null);
+    }
+
+    /**
+     * The status of each job, fetched in parallel on a pool of
+     * templeton.queue.status.threads threads.  Returns a result for
+     * each id, in order: the status, or the error for that id.
+     *
+     * The ids are split among at most one task per pool thread, and
+     * each task opens its own storage, since a storage is not safe to
+     * share between threads.
+     */
+    public List<Object> runAll(final String user, final List<String> ids,
+                               final Long maxStaleness)
+        throws IOException
+    {
+        ThreadPoolExecutor pool = statusPool(appConf);
+        final int tasks = Math.min(ids.size(), pool.getMaximumPoolSize());
+        final Object[] res = new Object[ids.size()];
+        ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+        try {
+            for (int t = 0; t < tasks; ++t) {
+                final int first = t;
+                futures.add(pool.submit(new Callable<Object>() {
+                        public Object call() throws IOException {
+                            statusEvery(user, ids, first, tasks, maxStaleness, res);
+                            return null;
+                        }
+                    }));
+            }
+
+            for (Future<Object> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+            }
+            return Arrays.asList(res);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while fetching job status", e);
+        } finally {
+            for (Future<Object> f : futures)
+                f.cancel(true);
+        }
+    }
+
+    // Fetch the status of every step'th id, starting at first, into
+    // res, with a storage of its own.
+    private void statusEvery(String user, List<String> ids, int first, int step,
+                             Long maxStaleness, Object[] res)
+        throws IOException
+    {
+        TempletonStorage storage = JobState.getStorage(Main.getAppConfigInstance());
+        try {
+            for (int i = first; i < ids.size(); i += step)
+                res[i] = statusOrError(user, ids.get(i), maxStaleness, storage);
+        } finally {
+            storage.closeStorage();
+        }
+    }
+
+    /**
+     * The status, or an error map the way a single status request
+     * would have reported it.  Uses the open storage, which no other
+     * thread is using.
+     */
+    protected Object statusOrError(String user, String id, Long maxStaleness,
+                                   TempletonStorage storage)
+    {
+        int code;
+        String msg;
+        try {
+            return status(user, id, maxStaleness, storage);
+        } catch (SimpleWebException e) {
+            code = e.httpCode;
+            msg = e.getMessage();
+        } catch (Throwable e) {
+            LOG.warn("Unable to get the status of " + id, e);
+            code = 500;
+            msg = e.getMessage();
+        }
+        HashMap<String, Object> err = new HashMap<String, Object>();
+        err.put("id", id);
+        err.put("error", msg);
+        err.put("errorCode", String.valueOf(code));
+        return err;
+    }
+
+    // The status of one job.  Uses the open storage if given, else
+    // opens its own.
+    private QueueStatusBean status(String user, String id, Long maxStaleness,
+                                   TempletonStorage storage)
+        throws NotAuthorizedException, BadParam, IOException
+    {
+        JobTrackerPool pool = JobTrackerPool.getInstance();
         TempletonJobTracker tracker = null;
         JobState state = null;
         try {
-            tracker = new TempletonJobTracker(ugi,
-                                              JobTracker.getAddress(appConf),
-                                              appConf);
             JobID jobid = StatusDelegator.StringToJobID(id);
             if (jobid == null)
                 throw new BadParam("Invalid jobid: " + id);
-            state = new JobState(id, Main.getAppConfigInstance());
+            if (storage == null)
+                state = new JobState(id, Main.getAppConfigInstance());
+            else
+                state = new JobState(id, Main.getAppConfigInstance(), storage);
+            QueueStatusBean res = fromSnapshot(jobid, state, maxStaleness);
+            if (res != null)
+                return res;
+            tracker = pool.borrow(user);
             return StatusDelegator.makeStatus(tracker, jobid, state);
         } catch (IllegalStateException e) {
             throw new BadParam(e.getMessage());
         } finally {
-            if (tracker != null)
-                tracker.close();
+            pool.release(tracker);
             if (state != null)
                 state.close();
         }
     }
 
+    // The status from the snapshot, or null if the job is not in a
+    // fresh enough snapshot.  A missing child is left to makeStatus()
+    // since it may just be newer than the snapshot.
+    private static QueueStatusBean fromSnapshot(JobID jobid,
+                                                JobState state,
+                                                Long maxStaleness)
+        throws BadParam, IOException
+    {
+        JobStatusSnapshot snap = JobStatusSnapshot.getInstance();
+        JobID bestid = jobid;
+        String childid = state.getChildId();
+        if (childid != null)
+            bestid = StatusDelegator.StringToJobID(childid);
+
+        JobStatus status = snap.getStatus(bestid, maxStaleness);
+        if (status == null)
+            return null;
+        JobProfile profile = snap.getProfile(bestid);
+        if (profile == null)
+            return null;
+        return new QueueStatusBean(state, status, profile);
+    }
+
     public static QueueStatusBean makeStatus(TempletonJobTracker tracker,
                                              JobID jobid,
                                              String childid,
@@ -99,6 +245,27 @@ public class StatusDelegator extends TempletonDelegator {
         return makeStatus(tracker, jobid, state.getChildId(), state);
     }
 
+    // The pool shared by all the runAll() calls.  A full pool runs
+    // the fetch in the calling thread instead.
+    static synchronized ThreadPoolExecutor statusPool(AppConfig conf) {
+        if (statusPool == null) {
+            int threads = conf.getInt(THREADS_NAME, 8);
+            statusPool = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(conf.getInt(MAX_IDS_NAME, 1000)),
+                new ThreadFactory() {
+                    private int n = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "queue-status-" + (++n));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return statusPool;
+    }
+
     /**
      * A version of JobID.forName with our app specific error handling.
      */
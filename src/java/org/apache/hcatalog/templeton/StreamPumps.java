@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed pool of threads that copy the stdout and stderr of the
+ * local programs.  This is a singleton service.
+ *
+ * A pump blocks on its stream until the program closes it, so every
+ * running program needs its own pumps.  The pool has two threads for
+ * each process slot and each async ddl thread, which is enough for
+ * every program that can run at once.  A pump is never queued, since
+ * a program with nobody reading its output can block forever; if the
+ * pool is ever full the pump gets a thread of its own instead, which
+ * is counted as an overflow.
+ */
+public class StreamPumps {
+    private static volatile StreamPumps theSingleton;
+
+    /**
+     * Retrieve the singleton.
+     */
+    public static synchronized StreamPumps getInstance() {
+        if (theSingleton == null) {
+            AppConfig appConf = Main.getAppConfigInstance();
+            int procs = appConf.getInt(AppConfig.EXEC_MAX_PROCS_NAME, 16)
+                + appConf.getInt(AsyncDdlService.THREADS_NAME, 4);
+            theSingleton = new StreamPumps(2 * procs);
+        }
+        return theSingleton;
+    }
+
+    private ThreadPoolExecutor pool;
+    private long overflows = 0;
+
+    /**
+     * Create a pool.
+     *
+     * @param threads  The number of pump threads
+     */
+    public StreamPumps(int threads) {
+        threads = Math.max(1, threads);
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                private int n = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "exec-pump-" + (++n));
+                    t.setDaemon(true);
+                    return t;
+                }
+            },
+            new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                    synchronized (StreamPumps.this) {
+                        ++overflows;
+                    }
+                    Thread t = new Thread(r, "exec-pump-overflow");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            });
+        pool.prestartAllCoreThreads();
+    }
+
+    /**
+     * Copy a stream until it ends, in the background.  The input is
+     * closed when done, but not the output.  Wait for the copy with
+     * join.
+     */
+    public Future<?> pump(InputStream in, OutputStream out) {
+        return pump(in, out, null);
+    }
+
+    /**
+     * Copy a stream until it ends, in the background, then run done
+     * on the pump thread.  done may be null.
+     */
+    public Future<?> pump(final InputStream in, final OutputStream out,
+                          final Runnable done)
+    {
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    byte[] buf = new byte[4096];
+                    try {
+                        int n;
+                        while ((n = in.read(buf)) >= 0)
+                            out.write(buf, 0, n);
+                    } catch (IOException e) {
+                        // The program is gone.
+                    } finally {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            // Nothing more to do.
+                        }
+                        if (done != null)
+                            done.run();
+                    }
+                }
+            }, null);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Wait for a copy started by pump.
+     */
+    public static void join(Future<?> pump)
+        throws InterruptedException
+    {
+        try {
+            pump.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * The pool statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("threads", pool.getPoolSize());
+        res.put("active", pool.getActiveCount());
+        res.put("completed", pool.getCompletedTaskCount());
+        res.put("overflows", overflows);
+        return res;
+    }
+}
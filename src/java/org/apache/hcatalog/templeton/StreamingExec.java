@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A program started by ExecServiceImpl.runStreaming.  Its stdout is
+ * read straight from the process as it is written, instead of being
+ * buffered whole, so the memory used doesn't grow with the output.
+ * Call start before reading stdout, then call finish for the exit code
+ * and stderr.  Always call close.
+ *
+ * A program that is never started, such as for a HEAD request or a
+ * client that went away before the response was written, is killed
+ * when the timeout is up and closed once it has exited, which frees
+ * its process slot.  Once started the timeout only counts the time
+ * the stdout goes unread, so a long list read steadily by a slow
+ * client isn't cut off, but a stalled client can't hold the slot.  A
+ * program killed for that frees its slot at once, and the reader
+ * sees the stdout end early.
+ */
+public class StreamingExec {
+    private static final Log LOG = LogFactory.getLog(StreamingExec.class);
+
+    /**
+     * How long in milliseconds a program with no timeout waits for
+     * start before it is killed.
+     */
+    public static final int UNSTARTED_TIMEOUT = 60000;
+
+    // The stdout of the program, counting the bytes read.
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                ++count;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    private Process proc;
+    private InputStream stdout;
+    private CountingInputStream counted;
+    private PooledOutputStream stderr;
+    private int timeout;
+    private String encoding;
+    private ExecBean done;
+
+    // Guards the fields below, apart from the finish lock, so the
+    // timer and the pumps never wait on a slow finish.
+    private final Object lock = new Object();
+    private ExecTimer.Timeout kill;
+    private Runnable cleanup;
+    private boolean started = false;
+    private boolean abandoned = false;
+    private boolean stalled = false;
+    private boolean finished = false;
+    private boolean errDone = false;
+
+    /**
+     * Watch a started program, with stdin already closed.
+     *
+     * @param proc     The program
+     * @param stderr   Where to keep its stderr, released when done
+     * @param timeout  How long in milliseconds to let it run before
+     *                 start is called, or go unread after, 0 for
+     *                 UNSTARTED_TIMEOUT
+     * @param cleanup  Run once the program is done, may be null
+     */
+    StreamingExec(Process proc, PooledOutputStream stderr, int timeout,
+                  String encoding, Runnable cleanup)
+    {
+        this.proc = proc;
+        this.counted = new CountingInputStream(proc.getInputStream());
+        this.stdout = counted;
+        this.stderr = stderr;
+        this.timeout = (timeout > 0) ? timeout : UNSTARTED_TIMEOUT;
+        this.encoding = encoding;
+        this.cleanup = cleanup;
+
+        StreamPumps.getInstance().pump(proc.getErrorStream(), stderr, new Runnable() {
+                public void run() {
+                    errDone();
+                }
+            });
+        synchronized (lock) {
+            kill = ExecTimer.getInstance().schedule(new Runnable() {
+                    public void run() {
+                        abandon();
+                    }
+                }, this.timeout);
+        }
+    }
+
+    /**
+     * A program that has already run, such as one run by an hcat
+     * worker.
+     */
+    StreamingExec(ExecBean done, String encoding)
+        throws IOException
+    {
+        this.done = done;
+        this.encoding = encoding;
+        byte[] out = (done.stdout == null) ? new byte[0] : done.stdout.getBytes(encoding);
+        this.stdout = new ByteArrayInputStream(out);
+    }
+
+    /**
+     * The stdout of the program.
+     */
+    public InputStream getStdout() {
+        return stdout;
+    }
+
+    /**
+     * The stdout is being read by a client.  From now on the timeout
+     * only counts the time the stdout goes unread.  Throws an
+     * exception if the program was already killed.
+     */
+    public void start()
+        throws IOException
+    {
+        if (proc == null)
+            return;
+        synchronized (lock) {
+            if (abandoned)
+                throw new IOException("The program was killed before its output was read");
+            started = true;
+            kill.cancel();
+            watchIdle(counted.count);
+        }
+    }
+
+    /**
+     * Was the program killed because its stdout went unread for too
+     * long after start?
+     */
+    public boolean isStalled() {
+        synchronized (lock) {
+            return stalled;
+        }
+    }
+
+    // Check for progress once the timeout is up.  Called with the lock.
+    private void watchIdle(final long seen) {
+        kill = ExecTimer.getInstance().schedule(new Runnable() {
+                public void run() {
+                    checkIdle(seen);
+                }
+            }, timeout);
+    }
+
+    // Kill the program if nothing was read from stdout since the last
+    // check, and free its slot at once rather than when the reader
+    // gets around to finish.
+    private void checkIdle(long seen) {
+        synchronized (lock) {
+            if (finished)
+                return;
+            long now = counted.count;
+            if (now != seen) {
+                watchIdle(now);
+                return;
+            }
+            stalled = true;
+        }
+        LOG.warn("Killing a streaming program whose output went unread for "
+                 + timeout + "ms");
+        proc.destroy();
+        runCleanup();
+    }
+
+    // Run the cleanup, only once.
+    private void runCleanup() {
+        Runnable c;
+        synchronized (lock) {
+            c = cleanup;
+            cleanup = null;
+        }
+        if (c != null)
+            c.run();
+    }
+
+    // The timeout is up before start was called.  Kill the program,
+    // and close once its stderr is done, off the timer thread.
+    private void abandon() {
+        boolean closeNow;
+        synchronized (lock) {
+            if (started)
+                return;
+            LOG.warn("Killing a streaming program that was never read");
+            abandoned = true;
+            closeNow = errDone;
+        }
+        proc.destroy();
+        if (closeNow)
+            close();
+    }
+
+    // The stderr pump is done, which happens when the program exits.
+    private void errDone() {
+        boolean closeNow;
+        synchronized (lock) {
+            errDone = true;
+            lock.notifyAll();
+            closeNow = abandoned;
+        }
+        if (closeNow)
+            close();
+    }
+
+    /**
+     * Wait for the program to exit.  The result has the exit code and
+     * stderr but no stdout, which was read from getStdout.  Any
+     * stdout not yet read is skipped, so the program isn't left
+     * blocked on a full pipe.
+     */
+    public synchronized ExecBean finish()
+        throws IOException
+    {
+        if (done != null)
+            return done;
+
+        ExecBean res = new ExecBean();
+        try {
+            skip(stdout);
+            res.exitcode = proc.waitFor();
+            synchronized (lock) {
+                while (! errDone)
+                    lock.wait();
+            }
+        } catch (InterruptedException e) {
+            // The stderr pump may still be copying.
+            stderr.discard();
+            throw new IOException(e);
+        } finally {
+            synchronized (lock) {
+                finished = true;
+                kill.cancel();
+            }
+            runCleanup();
+        }
+        res.stdout = "";
+        try {
+            res.stderr = stderr.toString(encoding);
+        } finally {
+            stderr.release();
+        }
+        done = res;
+        return res;
+    }
+
+    /**
+     * Stop reading stdout, killing the program if it is still
+     * running.
+     */
+    public void close() {
+        try {
+            stdout.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+        if (proc == null)
+            return;
+        proc.destroy();
+        try {
+            finish();
+        } catch (IOException e) {
+            LOG.warn("Unable to stop a streaming program: " + e);
+        }
+    }
+
+    // Read a stream to the end, dropping the data.
+    private static void skip(InputStream in) {
+        byte[] buf = new byte[4096];
+        try {
+            while (in.read(buf) >= 0)
+                ;
+        } catch (IOException e) {
+            // Closed, nothing left to read.
+        }
+    }
+}
@@ -140,6 +140,19 @@ public class HDFSCleanup extends Thread {
                 // Nothing to find for this type.
             }
         }
+
+        // The user index entries are as old as the jobs they point to.
+        try {
+            for (FileStatus user : fs.listStatus(new Path(
+                    storage_root + HDFSStorage.USER_PATH))) {
+                for (FileStatus status : fs.listStatus(user.getPath())) {
+                    if (now - status.getModificationTime() > maxage)
+                        fs.delete(status.getPath(), false);
+                }
+            }
+        } catch (Exception e) {
+            // No user index yet.
+        }
     }
 
     // Handle to stop this process from the outside if needed.
@@ -49,6 +49,7 @@ public class HDFSStorage implements TempletonStorage {
     public static final String JOB_PATH = "/jobs";
     public static final String JOB_TRACKINGPATH = "/created";
     public static final String OVERHEAD_PATH = "/overhead";
+    public static final String USER_PATH = "/users";
 
     private static final Log LOG = LogFactory.getLog(HDFSStorage.class);
 
@@ -214,6 +215,54 @@ public class HDFSStorage implements TempletonStorage {
         return allNodes;
     }
 
+    @Override
+    public void addUserJob(String user, String id)
+        throws NotFoundException
+    {
+        try {
+            fs.create(new Path(getUserPath(user, storage_root) + "/" + id))
+                .close();
+        } catch (IOException e) {
+            throw new NotFoundException("Couldn't index " + id + " for "
+                                        + user + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void removeUserJob(String user, String id) {
+        try {
+            fs.delete(new Path(getUserPath(user, storage_root) + "/" + id),
+                      false);
+        } catch (IOException e) {
+            LOG.trace("Couldn't delete " + id + " for " + user + ": "
+                      + e.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> getUserJobs(String user) {
+        ArrayList<String> ids = new ArrayList<String>();
+        try {
+            FileStatus[] files
+                = fs.listStatus(new Path(getUserPath(user, storage_root)));
+            if (files != null) {
+                for (FileStatus status : files)
+                    ids.add(status.getPath().getName());
+            }
+        } catch (IOException e) {
+            LOG.trace("Couldn't find jobs for " + user + ": "
+                      + e.getMessage());
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean watchFields(Type type, String id, List<String> keys,
+                               Runnable listener) {
+        // HDFS has no change notification.
+        return false;
+    }
+
     @Override
     public void openStorage(Configuration config) throws IOException {
         storage_root = config.get(TempletonStorage.STORAGE_ROOT);
@@ -253,4 +302,14 @@ public class HDFSStorage implements TempletonStorage {
         }
         return typepath;
     }
+
+    /**
+     * Static method to get the path of a user's jobs in the user index.
+     *
+     * @param user
+     * @param root
+     */
+    public static String getUserPath(String user, String root) {
+        return root + USER_PATH + "/" + user;
+    }
 }
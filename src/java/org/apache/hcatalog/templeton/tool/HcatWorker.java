@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hive.cli.CliSessionState;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.processors.DfsProcessor;
+import org.apache.hadoop.hive.ql.processors.SetProcessor;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hcatalog.cli.HCatDriver;
+import org.apache.hcatalog.cli.SemanticAnalysis.HCatSemanticAnalyzer;
+import org.apache.hcatalog.common.HCatConstants;
+import org.apache.hcatalog.templeton.MaxByteArrayOutputStream;
+
+/**
+ * A long running hcat process.  Reads hcat command lines from stdin
+ * and runs each one the same way the hcat command would, in a new
+ * Hive session, writing back the exit code, stdout and stderr.  This
+ * saves the JVM startup and class loading of running hcat once per
+ * ddl call.  Started by HcatWorkerExecService as the proxy user.
+ *
+ * The protocol is binary, on stdin and stdout:
+ *
+ *   startup:  the worker writes READY
+ *   request:  int max bytes, int n, followed by n strings, the hcat
+ *             arguments
+ *   response: int exit code, boolean truncated, bytes stdout,
+ *             bytes stderr
+ *
+ * Strings and bytes are an int length followed by the data.  Only
+ * the first max bytes of stdout and stderr are kept, or all of them
+ * if max bytes is negative, and truncated is set if any were dropped.
+ * Anything else the worker prints goes to stderr.
+ */
+public class HcatWorker {
+    public static final int READY = 0x48435752;
+
+    private HiveConf baseConf;
+
+    public HcatWorker() {
+        baseConf = new HiveConf(SessionState.class);
+        baseConf.set(HiveConf.ConfVars.SEMANTIC_ANALYZER_HOOK.varname,
+                     HCatSemanticAnalyzer.class.getName());
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        PrintStream log = System.err;
+        System.setOut(log);
+
+        HcatWorker worker = new HcatWorker();
+        worker.warmUp(log);
+        out.writeInt(READY);
+        out.flush();
+
+        while (true) {
+            int maxBytes;
+            List<String> hcatArgs;
+            try {
+                maxBytes = in.readInt();
+                hcatArgs = readArgs(in);
+            } catch (EOFException e) {
+                break;          // Our parent closed the connection.
+            }
+            if (maxBytes < 0)
+                maxBytes = Integer.MAX_VALUE;
+
+            MaxByteArrayOutputStream stdout = new MaxByteArrayOutputStream(maxBytes);
+            MaxByteArrayOutputStream stderr = new MaxByteArrayOutputStream(maxBytes);
+            PrintStream pout = new PrintStream(stdout, true);
+            PrintStream perr = new PrintStream(stderr, true);
+            int exitcode;
+            System.setOut(pout);
+            System.setErr(perr);
+            try {
+                exitcode = worker.run(hcatArgs, pout, perr);
+            } finally {
+                System.setOut(log);
+                System.setErr(log);
+            }
+            pout.flush();
+            perr.flush();
+
+            out.writeInt(exitcode);
+            out.writeBoolean(stdout.isTruncated() || stderr.isTruncated());
+            writeBytes(out, stdout.toByteArray());
+            writeBytes(out, stderr.toByteArray());
+            out.flush();
+        }
+    }
+
+    // Load the Hive classes and connect to the metastore before the
+    // first real request.
+    private void warmUp(PrintStream log) {
+        try {
+            ArrayList<String> args = new ArrayList<String>();
+            args.add("-e");
+            args.add("show databases;");
+            run(args, log, log);
+        } catch (Exception e) {
+            log.println("hcat worker warm up failed: " + e);
+        }
+    }
+
+    /**
+     * Run one hcat command line.  Only the arguments used by
+     * HcatDelegator are understood: -e, -g, -p and -D.
+     *
+     * @return the exit code
+     */
+    public int run(List<String> args, PrintStream out, PrintStream err) {
+        HiveConf conf = new HiveConf(baseConf, SessionState.class);
+        String exec = null;
+        for (int i = 0; i + 1 < args.size(); i += 2) {
+            String flag = args.get(i);
+            String val = args.get(i + 1);
+            if (flag.equals("-e"))
+                exec = val;
+            else if (flag.equals("-g"))
+                conf.set(HCatConstants.HCAT_GROUP, val);
+            else if (flag.equals("-p"))
+                conf.set(HCatConstants.HCAT_PERMS, val);
+            else if (flag.equals("-D")) {
+                String[] kv = val.split("=", 2);
+                conf.set(kv[0], (kv.length > 1) ? kv[1] : "");
+            } else {
+                err.println("Unsupported hcat worker argument: " + flag);
+                return 1;
+            }
+        }
+        if (exec == null) {
+            err.println("No hcat expression given");
+            return 1;
+        }
+
+        CliSessionState ss = new CliSessionState(conf);
+        ss.out = out;
+        ss.err = err;
+        SessionState.start(ss);
+
+        try {
+            return processLine(exec, ss);
+        } catch (Exception e) {
+            e.printStackTrace(err);
+            return 1;
+        }
+    }
+
+    // Run each statement, stopping at the first failure.  The same
+    // as the hcat command.
+    private int processLine(String line, SessionState ss)
+        throws Exception
+    {
+        int ret = 0;
+        String command = "";
+        for (String oneCmd : line.split(";")) {
+            if (StringUtils.endsWith(oneCmd, "\\")) {
+                command += StringUtils.chop(oneCmd) + ";";
+                continue;
+            } else {
+                command += oneCmd;
+            }
+            if (StringUtils.isBlank(command))
+                continue;
+
+            ret = processCmd(command.trim(), ss);
+            command = "";
+            if (ret != 0)
+                break;
+        }
+        return ret;
+    }
+
+    private int processCmd(String cmd, SessionState ss)
+        throws Exception
+    {
+        String firstToken = cmd.split("\\s+")[0].trim();
+        String rest = cmd.substring(firstToken.length()).trim();
+        if (firstToken.equalsIgnoreCase("set"))
+            return new SetProcessor().run(rest).getResponseCode();
+        if (firstToken.equalsIgnoreCase("dfs"))
+            return new DfsProcessor(ss.getConf()).run(rest).getResponseCode();
+
+        HCatDriver driver = new HCatDriver();
+        try {
+            int ret = driver.run(cmd).getResponseCode();
+            if (ret != 0)
+                return ret;
+
+            ArrayList<String> res = new ArrayList<String>();
+            while (driver.getResults(res)) {
+                for (String r : res)
+                    ss.out.println(r);
+                res.clear();
+            }
+            return 0;
+        } finally {
+            driver.close();
+        }
+    }
+
+    /**
+     * Read a request.
+     */
+    public static List<String> readArgs(DataInputStream in)
+        throws IOException
+    {
+        int n = in.readInt();
+        ArrayList<String> res = new ArrayList<String>(n);
+        for (int i = 0; i < n; ++i)
+            res.add(new String(readBytes(in), "UTF-8"));
+        return res;
+    }
+
+    /**
+     * Write a request.
+     */
+    public static void writeArgs(DataOutputStream out, List<String> args)
+        throws IOException
+    {
+        out.writeInt(args.size());
+        for (String arg : args)
+            writeBytes(out, arg.getBytes("UTF-8"));
+    }
+
+    public static byte[] readBytes(DataInputStream in)
+        throws IOException
+    {
+        return readBytes(in, -1);
+    }
+
+    /**
+     * Read bytes, refusing more than maxBytes unless it is negative.
+     */
+    public static byte[] readBytes(DataInputStream in, int maxBytes)
+        throws IOException
+    {
+        int len = in.readInt();
+        if (len < 0 || (maxBytes >= 0 && len > maxBytes))
+            throw new IOException("Bad hcat worker message length " + len);
+        byte[] buf = new byte[len];
+        in.readFully(buf);
+        return buf;
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] buf)
+        throws IOException
+    {
+        out.writeInt(buf.length);
+        out.write(buf);
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -40,8 +41,14 @@ public class JobState {
 
     private static TempletonStorage.Type type = TempletonStorage.Type.JOB;
 
+    // The overhead id that records the state of the user index.
+    private static final String USER_INDEX_ID = "userindex";
+
     private Configuration config = null;
 
+    // False if the storage belongs to the caller.
+    private boolean ownStorage = true;
+
     public JobState(String id, Configuration conf)
         throws IOException
     {
@@ -50,15 +57,34 @@ public class JobState {
         storage = getStorage(conf);
     }
 
+    /**
+     * A job state using an open storage shared with other job
+     * states.  close() leaves the storage open.
+     */
+    public JobState(String id, Configuration conf, TempletonStorage storage) {
+        this.id = id;
+        config = conf;
+        this.storage = storage;
+        ownStorage = false;
+    }
+
     public void delete()
         throws IOException
     {
+        String user = null;
+        try {
+            user = getUser();
+        } catch (Exception e) {
+            // Not readable, so there is no index entry to remove.
+        }
         try {
             storage.delete(type, id);
         } catch (Exception e) {
             // Error getting children of node -- probably node has been deleted
             LOG.info("Couldn't delete " + id);
         }
+        if (user != null)
+            storage.removeUserJob(user, id);
     }
 
     /**
@@ -97,7 +123,8 @@ public class JobState {
      * that it's time to close the connection.
      */
     public void close() throws IOException {
-        storage.closeStorage();
+        if (ownStorage)
+            storage.closeStorage();
     }
 
     //
@@ -236,6 +263,22 @@ public class JobState {
         throws IOException
     {
         setField("user", user);
+        indexUser(user);
+    }
+
+    /**
+     * Add this job to the index of jobs started by the user.
+     */
+    public void indexUser(String user)
+        throws IOException
+    {
+        if (user == null)
+            return;
+        try {
+            storage.addUserJob(user, id);
+        } catch (NotFoundException ne) {
+            throw new IOException(ne.getMessage());
+        }
     }
 
     /**
@@ -280,6 +323,42 @@ public class JobState {
         setLongField("notified", notified);
     }
 
+    /**
+     * A token that changes whenever the progress of the job does:
+     * its percent complete, completed status, exit value or child id.
+     */
+    public String getWatchToken()
+        throws IOException
+    {
+        return watchToken(getPercentComplete(), getCompleteStatus(),
+                          getExitValue(), getChildId());
+    }
+
+    /**
+     * The watch token for these field values, an md5 of them so that
+     * different values can't share a token the way they can a
+     * String hashCode.
+     */
+    public static String watchToken(String percentComplete, String completed,
+                                    Long exitValue, String childid)
+    {
+        String s = percentComplete + "\n" + completed + "\n" + exitValue
+            + "\n" + childid;
+        return DigestUtils.md5Hex(s);
+    }
+
+    /**
+     * The names of the fields that make up the watch token.
+     */
+    public static List<String> watchFields() {
+        ArrayList<String> res = new ArrayList<String>();
+        res.add("percentComplete");
+        res.add("completed");
+        res.add("exitValue");
+        res.add("childid");
+        return res;
+    }
+
     //
     // Helpers
     //
@@ -354,4 +433,63 @@ public class JobState {
             throw new IOException("Can't get jobs", e);
         }
     }
+
+    /**
+     * Get the id of each job started by the user, from the user
+     * index.
+     *
+     * @param user
+     * @param conf
+     * @throws IOException
+     */
+    public static List<String> getUserJobs(String user, Configuration conf)
+        throws IOException
+    {
+        TempletonStorage storage = getStorage(conf);
+        try {
+            return storage.getUserJobs(user);
+        } finally {
+            storage.closeStorage();
+        }
+    }
+
+    /**
+     * True if the user index covers every job.  Jobs started before
+     * the index existed are only in it once it has been rebuilt.
+     *
+     * @param conf
+     * @throws IOException
+     */
+    public static boolean isUserIndexBuilt(Configuration conf)
+        throws IOException
+    {
+        TempletonStorage storage = getStorage(conf);
+        try {
+            return storage.getField(TempletonStorage.Type.TEMPLETONOVERHEAD,
+                                    USER_INDEX_ID, "built") != null;
+        } finally {
+            storage.closeStorage();
+        }
+    }
+
+    /**
+     * Record that the user index covers every job.
+     *
+     * @param conf
+     * @throws IOException
+     */
+    public static void setUserIndexBuilt(Configuration conf)
+        throws IOException
+    {
+        TempletonStorage storage = getStorage(conf);
+        try {
+            storage.saveField(TempletonStorage.Type.TEMPLETONOVERHEAD,
+                              USER_INDEX_ID, "built",
+                              Long.toString(System.currentTimeMillis()));
+        } catch (NotFoundException ne) {
+            throw new IOException(ne.getMessage());
+        } finally {
+            storage.closeStorage();
+        }
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hcatalog.templeton.ExecBean;
+
+/**
+ * Run programs through a SpawnServer child process.  The server is
+ * started on first use and started again if it dies.  Many calls may
+ * be made at once; each waits for its own answer.
+ */
+public class SpawnClient {
+    private static final Log LOG = LogFactory.getLog(SpawnClient.class);
+
+    // How long past its timeout to wait for a call before giving up
+    // on the server.
+    private static final long GRACE_MS = 30000;
+
+    /**
+     * The spawn server could not be started or reached, so the
+     * program was not run.
+     */
+    public static class LostException extends IOException {
+        public LostException(String msg) {
+            super(msg);
+        }
+    }
+
+    // One call waiting for its answer.
+    private static class Call {
+        SpawnServer.Result result;
+        String failure;
+        boolean lost = false;
+        boolean done = false;
+    }
+
+    // One running server.
+    private class Connection {
+        final Process proc;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final HashMap<Integer, Call> pending = new HashMap<Integer, Call>();
+        boolean alive = true;
+        boolean closing = false;
+        int nextId = 0;
+
+        Connection()
+            throws IOException
+        {
+            proc = new ProcessBuilder(command).start();
+            in = new DataInputStream(new BufferedInputStream(proc.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(proc.getOutputStream()));
+            drainLog();
+            try {
+                if (in.readInt() != SpawnServer.READY)
+                    throw new IOException("Bad spawn server handshake");
+            } catch (IOException e) {
+                proc.destroy();
+                throw new LostException("Unable to start spawn server: " + e);
+            }
+
+            Thread t = new Thread("spawn-client-reader") {
+                    public void run() {
+                        readAnswers();
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        // Hand each answer to its caller until the server goes away.
+        void readAnswers() {
+            try {
+                while (true) {
+                    int id = in.readInt();
+                    Call c = new Call();
+                    if (in.readInt() == SpawnServer.STARTED) {
+                        c.result = new SpawnServer.Result();
+                        c.result.exitcode = in.readInt();
+                        c.result.stdout = SpawnServer.readBytes(in);
+                        c.result.stderr = SpawnServer.readBytes(in);
+                    } else {
+                        c.failure = SpawnServer.readString(in);
+                    }
+                    finish(id, c);
+                }
+            } catch (IOException e) {
+                lost("spawn server exited: " + e);
+            }
+        }
+
+        synchronized void finish(int id, Call answer) {
+            Call c = pending.remove(id);
+            if (c == null)
+                return;         // The caller gave up.
+            c.result = answer.result;
+            c.failure = answer.failure;
+            c.done = true;
+            notifyAll();
+        }
+
+        void lost(String why) {
+            boolean crash;
+            synchronized (this) {
+                crash = ! closing;
+                alive = false;
+                for (Call c : pending.values()) {
+                    c.failure = why;
+                    c.lost = true;
+                    c.done = true;
+                }
+                pending.clear();
+                notifyAll();
+            }
+            proc.destroy();
+            if (crash) {
+                synchronized (SpawnClient.this) {
+                    ++crashed;
+                }
+            }
+        }
+
+        synchronized boolean isAlive() {
+            return alive;
+        }
+
+        SpawnServer.Result call(String program, List<String> args,
+                                Map<String, String> env, int timeout, int maxBytes)
+            throws IOException
+        {
+            Call c = new Call();
+            int id;
+            synchronized (this) {
+                if (! alive)
+                    throw new LostException("spawn server exited");
+                id = nextId++;
+                pending.put(id, c);
+                try {
+                    out.writeInt(id);
+                    SpawnServer.writeString(out, program);
+                    SpawnServer.writeStrings(out, (args == null)
+                                             ? new ArrayList<String>() : args);
+                    out.writeInt(env.size());
+                    for (Map.Entry<String, String> e : env.entrySet()) {
+                        SpawnServer.writeString(out, e.getKey());
+                        SpawnServer.writeString(out, e.getValue());
+                    }
+                    out.writeInt(timeout);
+                    out.writeInt(maxBytes);
+                    out.flush();
+                } catch (IOException e) {
+                    pending.remove(id);
+                    throw new LostException("Unable to reach spawn server: " + e);
+                }
+
+                long wait = (timeout > 0) ? timeout + GRACE_MS : 0;
+                long end = System.currentTimeMillis() + wait;
+                try {
+                    while (! c.done) {
+                        long left = end - System.currentTimeMillis();
+                        if (wait > 0 && left <= 0) {
+                            pending.remove(id);
+                            throw new IOException("No answer from spawn server");
+                        }
+                        wait((wait > 0) ? left : 0);
+                    }
+                } catch (InterruptedException e) {
+                    pending.remove(id);
+                    throw new IOException(e);
+                }
+            }
+
+            if (c.lost)
+                throw new IOException(c.failure);
+            if (c.result == null)
+                throw new IOException("Unable to run " + program + ": " + c.failure);
+            return c.result;
+        }
+
+        // Copy the server's own logging to our log.
+        void drainLog() {
+            Thread t = new Thread("spawn-server-log") {
+                    public void run() {
+                        try {
+                            BufferedReader r = new BufferedReader(
+                                new InputStreamReader(proc.getErrorStream()));
+                            String line;
+                            while ((line = r.readLine()) != null)
+                                LOG.info("spawn server: " + line);
+                        } catch (IOException e) {
+                            LOG.warn("Lost the spawn server log: " + e);
+                        }
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void close() {
+            synchronized (this) {
+                closing = true;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+
+    private final List<String> command;
+    private Connection conn;
+
+    // Stats
+    private long started = 0;
+    private long calls = 0;
+    private long crashed = 0;
+
+    /**
+     * @param command  The command line that starts a SpawnServer
+     */
+    public SpawnClient(List<String> command) {
+        this.command = command;
+    }
+
+    /**
+     * Run a program and wait for it.
+     *
+     * @param env       The whole environment of the program
+     * @param timeout   How long in milliseconds to let it run, 0 for ever
+     * @param maxBytes  The most bytes of stdout and stderr to keep
+     * @param encoding  The encoding of stdout and stderr
+     */
+    public ExecBean run(String program, List<String> args, Map<String, String> env,
+                        int timeout, int maxBytes, String encoding)
+        throws IOException
+    {
+        SpawnServer.Result res = connection().call(program, args, env, timeout, maxBytes);
+        return new ExecBean(new String(res.stdout, encoding),
+                            new String(res.stderr, encoding),
+                            res.exitcode);
+    }
+
+    private synchronized Connection connection()
+        throws IOException
+    {
+        ++calls;
+        if (conn == null || ! conn.isAlive()) {
+            conn = new Connection();
+            ++started;
+        }
+        return conn;
+    }
+
+    /**
+     * Stop the server.  Calls still running are lost.
+     */
+    public synchronized void close() {
+        if (conn != null)
+            conn.close();
+        conn = null;
+    }
+
+    /**
+     * The client statistics.
+     */
+    public synchronized Map<String, Object> stats() {
+        HashMap<String, Object> res = new HashMap<String, Object>();
+        res.put("running", conn != null && conn.isAlive());
+        res.put("started", started);
+        res.put("calls", calls);
+        res.put("crashed", crashed);
+        return res;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A small process that starts programs for Templeton.  Forking the
+ * Templeton server itself is slow with a large heap and can briefly
+ * need as much memory again, so the server asks this process, started
+ * once with a small heap, to do the forking instead.  Only the JDK is
+ * used, so it can run with just the Templeton jar on the classpath.
+ *
+ * The protocol is binary, on stdin and stdout, and requests may
+ * overlap; each is run on its own thread and answered when done:
+ *
+ *   startup:  the server writes READY
+ *   request:  int id, string program, int n, n strings of arguments,
+ *             int m, m pairs of environment strings, int timeout,
+ *             int max output bytes
+ *   response: int id, int STARTED, int exit code, bytes stdout,
+ *             bytes stderr
+ *          or int id, int FAILED, string reason
+ *
+ * Strings and bytes are an int length followed by the data.  The
+ * environment given is the whole environment of the program.  When
+ * stdin is closed every running program is killed and the server
+ * exits.
+ */
+public class SpawnServer {
+    public static final int READY   = 0x5350574e;
+    public static final int STARTED = 0;
+    public static final int FAILED  = 1;
+
+    // Kills the programs that run too long.
+    private static final Timer killer = new Timer("spawn-server-timeout", true);
+
+    // The programs now running.
+    private static final HashSet<Process> running = new HashSet<Process>();
+
+    /**
+     * The result of one program.
+     */
+    public static class Result {
+        public int exitcode;
+        public byte[] stdout;
+        public byte[] stderr;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+
+        out.writeInt(READY);
+        out.flush();
+
+        while (true) {
+            final int id;
+            final String program;
+            final List<String> progArgs;
+            final Map<String, String> env;
+            final int timeout;
+            final int maxBytes;
+            try {
+                id = in.readInt();
+                program = readString(in);
+                progArgs = readStrings(in);
+                env = new HashMap<String, String>();
+                int m = in.readInt();
+                for (int i = 0; i < m; ++i)
+                    env.put(readString(in), readString(in));
+                timeout = in.readInt();
+                maxBytes = in.readInt();
+            } catch (EOFException e) {
+                break;          // Our parent closed the connection.
+            }
+
+            Thread t = new Thread("spawn-server-" + id) {
+                    public void run() {
+                        respond(out, id, program, progArgs, env, timeout, maxBytes);
+                    }
+                };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        synchronized (running) {
+            for (Process p : running)
+                p.destroy();
+        }
+        System.exit(0);
+    }
+
+    // Run one program and write back the result.
+    private static void respond(DataOutputStream out, int id, String program,
+                                List<String> args, Map<String, String> env,
+                                int timeout, int maxBytes)
+    {
+        Result res = null;
+        String reason = null;
+        try {
+            res = exec(program, args, env, timeout, maxBytes);
+        } catch (Exception e) {
+            reason = e.toString();
+        }
+
+        try {
+            synchronized (out) {
+                out.writeInt(id);
+                if (res != null) {
+                    out.writeInt(STARTED);
+                    out.writeInt(res.exitcode);
+                    writeBytes(out, res.stdout);
+                    writeBytes(out, res.stderr);
+                } else {
+                    out.writeInt(FAILED);
+                    writeString(out, reason);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Our parent is gone, main will exit.
+        }
+    }
+
+    /**
+     * Run a program in this process and wait for it, keeping the
+     * first maxBytes of stdout and stderr.
+     *
+     * @param env      The whole environment of the program
+     * @param timeout  How long in milliseconds to let it run, 0 for ever
+     */
+    public static Result exec(String program, List<String> args,
+                              Map<String, String> env, int timeout, int maxBytes)
+        throws IOException, InterruptedException
+    {
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(program);
+        if (args != null)
+            cmd.addAll(args);
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.environment().clear();
+        if (env != null)
+            pb.environment().putAll(env);
+
+        final Process proc = pb.start();
+        synchronized (running) {
+            running.add(proc);
+        }
+        TimerTask kill = null;
+        try {
+            proc.getOutputStream().close();
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            Thread outPump = pump(proc.getInputStream(), stdout, maxBytes);
+            Thread errPump = pump(proc.getErrorStream(), stderr, maxBytes);
+            if (timeout > 0) {
+                kill = new TimerTask() {
+                        public void run() {
+                            proc.destroy();
+                        }
+                    };
+                killer.schedule(kill, timeout);
+            }
+
+            Result res = new Result();
+            res.exitcode = proc.waitFor();
+            outPump.join();
+            errPump.join();
+            res.stdout = stdout.toByteArray();
+            res.stderr = stderr.toByteArray();
+            return res;
+        } finally {
+            if (kill != null)
+                kill.cancel();
+            proc.destroy();
+            synchronized (running) {
+                running.remove(proc);
+            }
+        }
+    }
+
+    // Copy a stream in the background, keeping the first maxBytes.
+    private static Thread pump(final InputStream in, final ByteArrayOutputStream out,
+                               final int maxBytes)
+    {
+        Thread t = new Thread("spawn-server-pump") {
+                public void run() {
+                    byte[] buf = new byte[4096];
+                    try {
+                        int n;
+                        while ((n = in.read(buf)) >= 0) {
+                            int storable = Math.min(maxBytes - out.size(), n);
+                            if (storable > 0)
+                                out.write(buf, 0, storable);
+                        }
+                    } catch (IOException e) {
+                        // The program is gone.
+                    }
+                }
+            };
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    public static String readString(DataInputStream in)
+        throws IOException
+    {
+        return new String(readBytes(in), "UTF-8");
+    }
+
+    public static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        writeBytes(out, s.getBytes("UTF-8"));
+    }
+
+    public static List<String> readStrings(DataInputStream in)
+        throws IOException
+    {
+        int n = in.readInt();
+        ArrayList<String> res = new ArrayList<String>(n);
+        for (int i = 0; i < n; ++i)
+            res.add(readString(in));
+        return res;
+    }
+
+    public static void writeStrings(DataOutputStream out, List<String> list)
+        throws IOException
+    {
+        out.writeInt(list.size());
+        for (String s : list)
+            writeString(out, s);
+    }
+
+    public static byte[] readBytes(DataInputStream in)
+        throws IOException
+    {
+        int len = in.readInt();
+        if (len < 0)
+            throw new IOException("Bad spawn server message length " + len);
+        byte[] buf = new byte[len];
+        in.readFully(buf);
+        return buf;
+    }
+
+    public static void writeBytes(DataOutputStream out, byte[] buf)
+        throws IOException
+    {
+        out.writeInt(buf.length);
+        out.write(buf);
+    }
+}
@@ -40,6 +40,9 @@ import org.apache.hadoop.conf.Configuration;
  *     etc.
  *
  * Each field must be available to be fetched/changed individually.
+ *
+ * Jobs are also indexed by the user who started them, so that the
+ * jobs of one user can be found without reading every job.
  */
 public interface TempletonStorage {
     // These are the possible types referenced by 'type' below.
@@ -139,6 +142,42 @@ public interface TempletonStorage {
     public List<String> getAllForTypeAndKey(Type type, String key,
                                             String value);
 
+    /**
+     * Add a job id to the index of jobs started by a user.
+     * @param user The user who started the job
+     * @param id The String id of the job
+     */
+    public void addUserJob(String user, String id)
+        throws NotFoundException;
+
+    /**
+     * Remove a job id from the index of jobs started by a user.
+     * @param user The user who started the job
+     * @param id The String id of the job
+     */
+    public void removeUserJob(String user, String id);
+
+    /**
+     * Get the id of each job in the index of jobs started by a user.
+     * @param user The user who started the jobs
+     * @return An ArrayList<String> of ids.
+     */
+    public List<String> getUserJobs(String user);
+
+    /**
+     * Call the listener once, the next time one of the fields may
+     * have changed.  The listener may be called without a change, so
+     * the caller must check.  Storage that can't watch returns false
+     * and the caller must poll instead.
+     * @param type The data type (as listed above)
+     * @param id The String id of this data grouping (jobid, etc.)
+     * @param keys The names of the fields to watch
+     * @param listener Called when a field may have changed
+     * @return True if the fields are being watched.
+     */
+    public boolean watchFields(Type type, String id, List<String> keys,
+                               Runnable listener);
+
     /**
      * For storage methods that require a connection, this is a hint
      * that it's time to open a connection.
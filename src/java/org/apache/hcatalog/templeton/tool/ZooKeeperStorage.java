@@ -44,12 +44,14 @@ import org.apache.zookeeper.ZooKeeper;
 public class ZooKeeperStorage implements TempletonStorage {
 
     public static final String TRACKINGDIR = "/created";
+    public static final String USERDIR = "/users";
 
     // Locations for each of the storage types
     public String storage_root = null;
     public String job_path = null;
     public String job_trackingpath = null;
     public String overhead_path = null;
+    public String user_path = null;
 
     public static final String ZK_HOSTS = "templeton.zookeeper.hosts";
     public static final String ZK_SESSION_TIMEOUT
@@ -357,12 +359,104 @@ public class ZooKeeperStorage implements TempletonStorage {
         return allNodes;
     }
 
+    @Override
+    public void addUserJob(String user, String id)
+        throws NotFoundException
+    {
+        try {
+            for (String znode : getPaths(makeUserZnode(user, id))) {
+                try {
+                    zk.create(znode, new byte[0],
+                              Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                } catch (KeeperException.NodeExistsException e) {
+                }
+            }
+        } catch (Exception e) {
+            throw new NotFoundException("Indexing " + id + " for " + user + ", "
+                                        + e.getMessage());
+        }
+    }
+
+    @Override
+    public void removeUserJob(String user, String id) {
+        try {
+            zk.delete(makeUserZnode(user, id), -1);
+        } catch (Exception e) {
+            // Probably deleted already.
+            LOG.info("Couldn't delete " + makeUserZnode(user, id));
+        }
+    }
+
+    @Override
+    public List<String> getUserJobs(String user) {
+        try {
+            return zk.getChildren(user_path + "/" + user, false);
+        } catch (Exception e) {
+            return new ArrayList<String>();
+        }
+    }
+
+    @Override
+    public boolean watchFields(Type type, String id, List<String> keys,
+                               Runnable listener) {
+        FieldWatcher watcher = new FieldWatcher(listener);
+        try {
+            for (String key : keys)
+                zk.exists(makeFieldZnode(type, id, key), watcher);
+            return true;
+        } catch (Exception e) {
+            LOG.info("Couldn't watch " + makeZnode(type, id) + ": "
+                     + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs a listener when a watched node changes, or when the
+     * session expires and the watches are lost.  Equal for the same
+     * listener, so that ZooKeeper only keeps one watch for a node
+     * however many times it is armed.
+     */
+    private static class FieldWatcher implements Watcher {
+        private final Runnable listener;
+
+        FieldWatcher(Runnable listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() != Event.EventType.None
+                || event.getState() == Event.KeeperState.Expired)
+                listener.run();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof FieldWatcher)
+                && ((FieldWatcher) o).listener == listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(listener);
+        }
+    }
+
+    /**
+     * Make a ZK path to a job in the user index.
+     */
+    public String makeUserZnode(String user, String id) {
+        return user_path + "/" + user + "/" + id;
+    }
+
     @Override
     public void openStorage(Configuration config) throws IOException {
         storage_root = config.get(STORAGE_ROOT);
         job_path = storage_root + "/jobs";
         job_trackingpath = storage_root + TRACKINGDIR;
         overhead_path = storage_root + "/overhead";
+        user_path = storage_root + USERDIR;
 
         if (zk == null) {
             zk = zkOpen(config);
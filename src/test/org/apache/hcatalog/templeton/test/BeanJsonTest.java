@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.JobPriority;
+import org.apache.hadoop.mapred.JobProfile;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hcatalog.templeton.CompleteBean;
+import org.apache.hcatalog.templeton.EnqueueBean;
+import org.apache.hcatalog.templeton.ExecBean;
+import org.apache.hcatalog.templeton.JsonBuilder;
+import org.apache.hcatalog.templeton.QueueStatusBean;
+import org.junit.Test;
+
+public class BeanJsonTest {
+    private static Map json(Object bean) throws Exception {
+        return JsonBuilder.jsonToMap(JsonBuilder.mapToJson(bean));
+    }
+
+    @Test
+    public void testSmallBeans() throws Exception {
+        Map m = json(new ExecBean("out", "err", 3));
+        assertEquals(3, m.size());
+        assertEquals("out", m.get("stdout"));
+        assertEquals("err", m.get("stderr"));
+        assertEquals(3, m.get("exitcode"));
+
+        assertEquals("job_1", json(new EnqueueBean("job_1")).get("id"));
+        assertEquals("Callback sent", json(new CompleteBean("Callback sent")).get("status"));
+    }
+
+    @Test
+    public void testQueueStatus() throws Exception {
+        JobID id = new JobID("201112212038", 4);
+        QueueStatusBean bean = new QueueStatusBean();
+        bean.status = new JobStatus(id, 1.0f, 1.0f, 1.0f, 1.0f,
+                                    JobStatus.SUCCEEDED, JobPriority.NORMAL);
+        bean.profile = new JobProfile("ctdean", id, "job.xml",
+                                      "http://localhost:50030/jobdetails.jsp",
+                                      "PigLatin", "default");
+        bean.id = id.toString();
+        bean.exitValue = 0L;
+        bean.completed = "done";
+        bean.watchToken = "1f2e";
+
+        Map m = json(bean);
+        assertEquals("job_201112212038_0004", m.get("id"));
+        assertTrue(m.containsKey("parentId"));
+        assertNull(m.get("parentId"));
+        assertEquals(0, m.get("exitValue"));
+        assertEquals("done", m.get("completed"));
+        assertEquals("1f2e", m.get("watchToken"));
+
+        Map status = (Map) m.get("status");
+        assertEquals("job_201112212038_0004", status.get("jobId"));
+        assertEquals("NORMAL", status.get("jobPriority"));
+        assertEquals(JobStatus.SUCCEEDED, status.get("runState"));
+        assertEquals(Boolean.TRUE, status.get("jobComplete"));
+        assertEquals(4, ((Map) status.get("jobID")).get("id"));
+        assertFalse(status.containsKey("jobACLs"));
+
+        Map profile = (Map) m.get("profile");
+        assertEquals("default", profile.get("queueName"));
+        assertEquals("PigLatin", profile.get("jobName"));
+        assertEquals("201112212038", ((Map) profile.get("jobID")).get("jtIdentifier"));
+    }
+
+    @Test
+    public void testNulls() throws Exception {
+        Map m = json(new QueueStatusBean());
+        assertTrue(m.containsKey("status"));
+        assertNull(m.get("status"));
+        assertNull(m.get("exitValue"));
+    }
+}
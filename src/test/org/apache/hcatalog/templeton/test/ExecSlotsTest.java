@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hcatalog.templeton.BusyException;
+import org.apache.hcatalog.templeton.ExecSlots;
+import org.junit.Test;
+
+public class ExecSlotsTest {
+    @Test
+    public void testNoWait() throws Exception, BusyException {
+        ExecSlots slots = new ExecSlots(1, 10);
+        slots.acquire("fred", 0);
+        try {
+            slots.acquire("fred", 0);
+            fail("expected BusyException");
+        } catch (BusyException e) {
+            // Expected
+        }
+        slots.release("fred");
+        slots.acquire("fred", 0);
+        assertEquals(1L, slots.stats().get("rejectedFull"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception, BusyException {
+        ExecSlots slots = new ExecSlots(1, 10);
+        slots.acquire("fred", 0);
+        long start = System.currentTimeMillis();
+        try {
+            slots.acquire("barney", 50);
+            fail("expected BusyException");
+        } catch (BusyException e) {
+            // Expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertEquals(0, slots.stats().get("queued"));
+        assertEquals(1L, slots.stats().get("rejectedTimeout"));
+    }
+
+    @Test
+    public void testFairAcrossUsers() throws Exception, BusyException {
+        final ExecSlots slots = new ExecSlots(1, 10);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        slots.acquire("holder", 0);
+
+        // fred queues three calls before barney queues one.
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final String user : new String[] {"fred", "fred", "fred", "barney"}) {
+            Thread t = new Thread() {
+                    public void run() {
+                        try {
+                            slots.acquire(user, 10000);
+                            order.add(user);
+                            slots.release(user);
+                        } catch (BusyException e) {
+                            order.add("busy");
+                        }
+                    }
+                };
+            t.start();
+            threads.add(t);
+            while (((Integer) slots.stats().get("queued")) < threads.size())
+                Thread.sleep(1);
+        }
+
+        slots.release("holder");
+        for (Thread t : threads)
+            t.join();
+        assertEquals("[fred, barney, fred, fred]", order.toString());
+    }
+
+    // fred has twice the weight of barney and wilma may hold one slot.
+    private static final ExecSlots.SharePolicy POLICY = new ExecSlots.SharePolicy() {
+            public int weight(String user) {
+                return "fred".equals(user) ? 2 : 1;
+            }
+
+            public int cap(String user) {
+                return "wilma".equals(user) ? 1 : 0;
+            }
+        };
+
+    @Test
+    public void testCap() throws Exception, BusyException {
+        ExecSlots slots = new ExecSlots(4, 10, POLICY);
+        slots.acquire("wilma", 0);
+        try {
+            slots.acquire("wilma", 10);
+            fail("expected BusyException");
+        } catch (BusyException e) {
+            // Expected
+        }
+
+        // Others may still borrow every idle slot.
+        slots.acquire("barney", 0);
+        slots.acquire("barney", 0);
+        slots.acquire("barney", 0);
+        Map users = (Map) slots.stats().get("users");
+        assertEquals(3, ((Map) users.get("barney")).get("running"));
+        assertEquals(1, ((Map) users.get("wilma")).get("running"));
+    }
+
+    @Test
+    public void testWeights() throws Exception, BusyException {
+        final ExecSlots slots = new ExecSlots(3, 10, POLICY);
+        slots.acquire("holder", 0);
+        slots.acquire("holder", 0);
+        slots.acquire("holder", 0);
+
+        // Both wait for the three slots, which then split 2 to 1.
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final String user : new String[] {"barney", "barney", "fred", "fred"}) {
+            Thread t = new Thread() {
+                    public void run() {
+                        try {
+                            slots.acquire(user, 10000);
+                            order.add(user);
+                        } catch (BusyException e) {
+                            order.add("busy");
+                        }
+                    }
+                };
+            t.start();
+            threads.add(t);
+            while (((Integer) slots.stats().get("queued")) < threads.size())
+                Thread.sleep(1);
+        }
+
+        slots.release("holder");
+        slots.release("holder");
+        slots.release("holder");
+        while (((Integer) slots.stats().get("queued")) > 1)
+            Thread.sleep(1);
+        Map users = (Map) slots.stats().get("users");
+        assertEquals(2, ((Map) users.get("fred")).get("running"));
+        assertEquals(1, ((Map) users.get("barney")).get("running"));
+        assertEquals(1, ((Map) users.get("barney")).get("waiting"));
+        assertEquals(2.0, ((Map) users.get("fred")).get("fairShare"));
+
+        slots.release("fred");
+        for (Thread t : threads)
+            t.join();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hcatalog.templeton.ExecTimer;
+import org.junit.Test;
+
+public class ExecTimerTest {
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testFires() throws Exception {
+        ExecTimer timer = new ExecTimer(10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        timer.schedule(countDown(latch), 50);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 40);
+        assertEquals(1L, timer.stats().get("fired"));
+    }
+
+    @Test
+    public void testPastOneTurn() throws Exception {
+        // 8 buckets of 10ms, so 250ms is three turns of the wheel.
+        ExecTimer timer = new ExecTimer(10, 8);
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        timer.schedule(countDown(latch), 250);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 240);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ExecTimer timer = new ExecTimer(10, 8);
+        final AtomicInteger fired = new AtomicInteger();
+        ExecTimer.Timeout t = timer.schedule(new Runnable() {
+                public void run() {
+                    fired.incrementAndGet();
+                }
+            }, 30);
+        t.cancel();
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(countDown(later), 100);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, fired.get());
+        assertEquals(1L, timer.stats().get("cancelled"));
+        assertEquals(0, timer.stats().get("pending"));
+    }
+}
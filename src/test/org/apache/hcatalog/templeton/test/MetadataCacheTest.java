@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hcatalog.templeton.MetadataCache;
+import org.junit.Test;
+
+public class MetadataCacheTest {
+    private static Map result(String name) {
+        HashMap<String, Object> m = new HashMap<String, Object>();
+        m.put("name", name);
+        return m;
+    }
+
+    @Test
+    public void testDisabled() {
+        MetadataCache cache = new MetadataCache(10, 0);
+        cache.put("fred", "db", "t", "descTable", null, result("a"));
+        assertNull(cache.get("fred", "db", "t", "descTable", null));
+    }
+
+    @Test
+    public void testGetIsPerUser() {
+        MetadataCache cache = new MetadataCache(10, 60000);
+        cache.put("fred", "db", "t", "descTable", null, result("a"));
+        assertEquals("a", cache.get("fred", "DB", "T", "descTable", null).get("name"));
+        assertNull(cache.get("barney", "db", "t", "descTable", null));
+        assertNull(cache.get("fred", "db", "t", "descTable", "extended"));
+    }
+
+    @Test
+    public void testCopies() {
+        MetadataCache cache = new MetadataCache(10, 60000);
+        cache.put("fred", "db", "t", "descTable", null, result("a"));
+        cache.get("fred", "db", "t", "descTable", null).put("name", "b");
+        assertEquals("a", cache.get("fred", "db", "t", "descTable", null).get("name"));
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        MetadataCache cache = new MetadataCache(10, 20);
+        cache.put("fred", "db", "t", "descTable", null, result("a"));
+        Thread.sleep(50);
+        assertNull(cache.get("fred", "db", "t", "descTable", null));
+        assertEquals(1L, cache.stats().get("expired"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        MetadataCache cache = new MetadataCache(2, 60000);
+        cache.put("fred", "db", "a", "descTable", null, result("a"));
+        cache.put("fred", "db", "b", "descTable", null, result("b"));
+        cache.get("fred", "db", "a", "descTable", null);
+        cache.put("fred", "db", "c", "descTable", null, result("c"));
+        assertNotNull(cache.get("fred", "db", "a", "descTable", null));
+        assertNull(cache.get("fred", "db", "b", "descTable", null));
+        assertNotNull(cache.get("fred", "db", "c", "descTable", null));
+        assertEquals(1L, cache.stats().get("evicted"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        MetadataCache cache = new MetadataCache(10, 60000);
+        cache.put("fred", null, null, "listDatabases", "*", result("dbs"));
+        cache.put("fred", "db", null, "listTables", "*", result("tables"));
+        cache.put("fred", "db", "a", "descTable", null, result("a"));
+        cache.put("barney", "db", "b", "descTable", null, result("b"));
+        cache.put("fred", "other", "a", "descTable", null, result("oa"));
+
+        cache.invalidateTable("db", "a");
+        assertNull(cache.get("fred", "db", "a", "descTable", null));
+        assertNull(cache.get("fred", "db", null, "listTables", "*"));
+        assertNotNull(cache.get("barney", "db", "b", "descTable", null));
+        assertNotNull(cache.get("fred", "other", "a", "descTable", null));
+        assertNotNull(cache.get("fred", null, null, "listDatabases", "*"));
+
+        cache.invalidateDatabase("db");
+        assertNull(cache.get("barney", "db", "b", "descTable", null));
+        assertNull(cache.get("fred", null, null, "listDatabases", "*"));
+        assertNotNull(cache.get("fred", "other", "a", "descTable", null));
+
+        cache.invalidateAll();
+        assertNull(cache.get("fred", "other", "a", "descTable", null));
+    }
+
+    @Test
+    public void testCheckVersion() {
+        MetadataCache cache = new MetadataCache(10, 60000);
+        cache.checkVersion("db", "a", "table", "1");
+        cache.checkVersion("db", "a", "partitions", "1-5");
+        cache.put("fred", "db", "a", "descTable", null, result("a"));
+
+        cache.checkVersion("db", "a", "table", "1");
+        cache.checkVersion("db", "a", "partitions", "1-5");
+        assertNotNull(cache.get("fred", "db", "a", "descTable", null));
+
+        cache.checkVersion("db", "a", "partitions", "1-6");
+        assertNull(cache.get("fred", "db", "a", "descTable", null));
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        MetadataCache cache = new MetadataCache(10, 60000);
+
+        // A read starts, a write invalidates, then the read finishes.
+        long gen = cache.generation("db", "a");
+        long dbGen = cache.generation("db", null);
+        long allGen = cache.generation(null, null);
+        long otherGen = cache.generation("db", "b");
+        cache.invalidateTable("DB", "A");
+        cache.put("fred", "db", "a", "descTable", null, result("old"), gen);
+        cache.put("fred", "db", null, "listTables", "*", result("old"), dbGen);
+        assertNull(cache.get("fred", "db", "a", "descTable", null));
+        assertNull(cache.get("fred", "db", null, "listTables", "*"));
+        assertEquals(2L, cache.stats().get("stalePuts"));
+
+        // Other tables and the database list are not affected.
+        cache.put("fred", "db", "b", "descTable", null, result("b"), otherGen);
+        cache.put("fred", null, null, "listDatabases", "*", result("dbs"), allGen);
+        assertNotNull(cache.get("fred", "db", "b", "descTable", null));
+        assertNotNull(cache.get("fred", null, null, "listDatabases", "*"));
+
+        // A read that starts after the write is kept.
+        gen = cache.generation("db", "a");
+        cache.put("fred", "db", "a", "descTable", null, result("new"), gen);
+        assertEquals("new", cache.get("fred", "db", "a", "descTable", null).get("name"));
+
+        // Dropping the database moves every generation in it on.
+        gen = cache.generation("db", "b");
+        allGen = cache.generation(null, null);
+        cache.invalidateDatabase("db");
+        cache.put("fred", "db", "b", "descTable", null, result("b"), gen);
+        cache.put("fred", null, null, "listDatabases", "*", result("dbs"), allGen);
+        assertNull(cache.get("fred", "db", "b", "descTable", null));
+        assertNull(cache.get("fred", null, null, "listDatabases", "*"));
+
+        gen = cache.generation("other", "a");
+        cache.invalidateAll();
+        cache.put("fred", "other", "a", "descTable", null, result("oa"), gen);
+        assertNull(cache.get("fred", "other", "a", "descTable", null));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import org.apache.hcatalog.templeton.OutputBufferPool;
+import org.apache.hcatalog.templeton.PooledOutputStream;
+import org.junit.Test;
+
+public class OutputBufferPoolTest {
+    @Test
+    public void testSegments() throws Exception {
+        OutputBufferPool pool = new OutputBufferPool(4, 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 100);
+        out.write('a');
+        out.write("bcdefghij".getBytes("UTF-8"), 0, 9);
+        out.write('k');
+        assertEquals(11, out.size());
+        assertEquals("abcdefghijk", out.toString("UTF-8"));
+        assertEquals(12L, pool.heldBytes());
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        OutputBufferPool pool = new OutputBufferPool(4, 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 6);
+        out.write("abcdefghij".getBytes("UTF-8"), 0, 10);
+        out.write('k');
+        assertEquals("abcdef", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        OutputBufferPool pool = new OutputBufferPool(4, 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 100);
+        out.write("abcdefgh".getBytes("UTF-8"), 0, 8);
+        out.release();
+        assertEquals(0, out.size());
+
+        out = new PooledOutputStream(pool, 100);
+        out.write("xyz".getBytes("UTF-8"), 0, 3);
+        assertEquals("xyz", out.toString("UTF-8"));
+        assertEquals(2L, pool.stats().get("allocated"));
+        assertEquals(1L, pool.stats().get("reused"));
+        assertEquals(8L, pool.highWaterBytes());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        OutputBufferPool pool = new OutputBufferPool(4, 8);
+        PooledOutputStream out = new PooledOutputStream(pool, 100);
+        out.write(new byte[16], 0, 16);
+        assertEquals(16L, pool.heldBytes());
+        out.release();
+        assertEquals(8L, pool.heldBytes());
+        assertEquals(16L, pool.highWaterBytes());
+        assertEquals(2L, pool.stats().get("dropped"));
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        OutputBufferPool pool = new OutputBufferPool(4, 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 100);
+        out.write("abcdefgh".getBytes("UTF-8"), 0, 8);
+        out.discard();
+        out.write("ijkl".getBytes("UTF-8"), 0, 4);
+        out.write('m');
+        assertEquals(0, out.size());
+        out.release();
+        assertEquals(0L, pool.heldBytes());
+        assertEquals(2L, pool.stats().get("dropped"));
+    }
+}
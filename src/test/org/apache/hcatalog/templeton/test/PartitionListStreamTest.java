@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.hcatalog.templeton.MetaStoreReader;
+import org.apache.hcatalog.templeton.PartitionListStream;
+import org.junit.Test;
+
+public class PartitionListStreamTest {
+    @Test
+    public void testPageStart() {
+        assertEquals(0, PartitionListStream.pageStart(10, 0));
+        assertEquals(4, PartitionListStream.pageStart(10, 4));
+        assertEquals(10, PartitionListStream.pageStart(10, 10));
+        assertEquals(10, PartitionListStream.pageStart(10, 25));
+        assertEquals(10, PartitionListStream.pageStart(10, Integer.MAX_VALUE));
+        assertEquals(0, PartitionListStream.pageStart(0, 3));
+    }
+
+    @Test
+    public void testPageEnd() {
+        assertEquals(10, PartitionListStream.pageEnd(10, 0, -1));
+        assertEquals(10, PartitionListStream.pageEnd(10, 4, -1));
+        assertEquals(7, PartitionListStream.pageEnd(10, 4, 3));
+        assertEquals(10, PartitionListStream.pageEnd(10, 4, 6));
+        assertEquals(10, PartitionListStream.pageEnd(10, 4, 7));
+        assertEquals(4, PartitionListStream.pageEnd(10, 4, 0));
+        assertEquals(10, PartitionListStream.pageEnd(10, 10, 5));
+    }
+
+    @Test
+    public void testPageEndOverflow() {
+        // start + limit would wrap to a negative end.
+        assertEquals(10, PartitionListStream.pageEnd(10, 4, Integer.MAX_VALUE));
+        assertEquals(10, PartitionListStream.pageEnd(10, 10, Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE,
+                     PartitionListStream.pageEnd(Integer.MAX_VALUE, 5,
+                                                 Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testFetchMax() {
+        assertEquals(-1, PartitionListStream.fetchMax(0, -1));
+        assertEquals(-1, PartitionListStream.fetchMax(100, -1));
+        assertEquals(11, PartitionListStream.fetchMax(0, 10));
+        assertEquals(31, PartitionListStream.fetchMax(20, 10));
+        assertEquals(1, PartitionListStream.fetchMax(0, 0));
+        assertEquals(Short.MAX_VALUE, PartitionListStream.fetchMax(0, Short.MAX_VALUE - 1));
+        assertEquals(-1, PartitionListStream.fetchMax(0, Short.MAX_VALUE));
+        assertEquals(-1, PartitionListStream.fetchMax(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testMakeOnePartition() {
+        Map p = MetaStoreReader.makeOnePartition("ds=2012-01-01/hr=12");
+        assertEquals("ds='2012-01-01',hr='12'", p.get("name"));
+
+        // A '+' is not escaped in a partition path, and stays a '+'.
+        p = MetaStoreReader.makeOnePartition("tz=+05%3A30/a=b c");
+        assertEquals("tz='+05:30',a='b c'", p.get("name"));
+        List<Map> values = (List<Map>) p.get("values");
+        assertEquals("tz", values.get(0).get("columnName"));
+        assertEquals("+05:30", values.get(0).get("columnValue"));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hcatalog.templeton.SingleFlight;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    @Test
+    public void testSharesRunningCall() throws Throwable {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            public String run() throws Throwable {
+                runs.incrementAndGet();
+                started.countDown();
+                finish.await();
+                return "result";
+            }
+        };
+
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[n] = flight.run("key", call);
+                    } catch (Throwable t) {
+                        results[n] = t.toString();
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0)
+                started.await();
+        }
+
+        // Wait for the followers to join the running call.
+        while (((Long) flight.stats().get("shared")) < threads.length - 1)
+            Thread.sleep(10);
+        finish.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(1, runs.get());
+        for (String r : results)
+            assertEquals("result", r);
+        assertEquals(1L, flight.stats().get("executions"));
+        assertEquals(0, flight.stats().get("inFlight"));
+    }
+
+    @Test
+    public void testRunsAgainAfterFinish() throws Throwable {
+        SingleFlight<Integer> flight = new SingleFlight<Integer>();
+        final AtomicInteger runs = new AtomicInteger();
+        SingleFlight.Call<Integer> call = new SingleFlight.Call<Integer>() {
+            public Integer run() {
+                return runs.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), flight.run("key", call));
+        assertEquals(Integer.valueOf(2), flight.run("key", call));
+        assertEquals(Integer.valueOf(3), flight.run("other", call));
+    }
+
+    @Test
+    public void testSharesErrors() throws Throwable {
+        SingleFlight<String> flight = new SingleFlight<String>();
+        try {
+            flight.run("key", new SingleFlight.Call<String>() {
+                    public String run() throws Throwable {
+                        throw new IOException("boom");
+                    }
+                });
+            fail("no exception");
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(0, flight.stats().get("inFlight"));
+    }
+}
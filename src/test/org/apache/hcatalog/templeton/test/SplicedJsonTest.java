@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hcatalog.templeton.JsonBuilder;
+import org.apache.hcatalog.templeton.SplicedJson;
+import org.junit.Test;
+
+public class SplicedJsonTest {
+    private static final String JSON
+        = "{\"tables\":[\"a\",\"b\"],\"owner\":\"fred\",\"count\":2,\"error\":null}";
+
+    @Test
+    public void testTopLevel() throws Exception {
+        SplicedJson m = new SplicedJson(JSON);
+        assertEquals("fred", m.get("owner"));
+        assertEquals(2, m.get("count"));
+        assertTrue(m.containsKey("error"));
+        assertNull(m.get("error"));
+        assertFalse(m.containsKey("missing"));
+    }
+
+    @Test
+    public void testSplice() throws Exception {
+        SplicedJson m = new SplicedJson(JSON);
+        m.put("database", "db");
+        m.put("owner", "barney");
+        m.remove("count");
+        assertEquals("barney", m.get("owner"));
+        assertFalse(m.containsKey("count"));
+
+        Map res = JsonBuilder.jsonToMap(JsonBuilder.mapToJson(m));
+        assertEquals(4, res.size());
+        assertEquals("db", res.get("database"));
+        assertEquals("barney", res.get("owner"));
+        assertEquals(2, ((List) res.get("tables")).size());
+        assertTrue(res.containsKey("error"));
+    }
+
+    @Test
+    public void testSameAsParsed() throws Exception {
+        SplicedJson m = new SplicedJson(JSON);
+        m.put("database", "db");
+        Map parsed = JsonBuilder.jsonToMap(JSON);
+        parsed.put("database", "db");
+        assertEquals(parsed, m);
+        assertEquals(parsed, JsonBuilder.jsonToMap(JsonBuilder.mapToJson(m)));
+    }
+
+    @Test
+    public void testBuilder() throws Exception {
+        Map m = JsonBuilder.create("{\"error\":\"no table\",\"errorCode\":404}")
+            .put("table", "t")
+            .getMap();
+        assertTrue(m instanceof SplicedJson);
+        assertEquals(404, JsonBuilder.create("{\"error\":\"no table\",\"errorCode\":404}")
+                     .build().getStatus());
+        assertEquals("t", m.get("table"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnObject() throws Exception {
+        new SplicedJson("[1, 2]");
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadJson() throws Exception {
+        new SplicedJson("{\"a\": [1, 2}");
+    }
+}
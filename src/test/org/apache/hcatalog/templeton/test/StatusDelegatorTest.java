@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hcatalog.templeton.AppConfig;
+import org.apache.hcatalog.templeton.Main;
+import org.apache.hcatalog.templeton.StatusDelegator;
+import org.apache.hcatalog.templeton.test.mock.MockStorage;
+import org.apache.hcatalog.templeton.tool.TempletonStorage;
+import org.junit.Test;
+
+public class StatusDelegatorTest {
+    // Reads the storage instead of asking the Job Tracker.
+    private static class StorageDelegator extends StatusDelegator {
+        StorageDelegator(AppConfig conf) {
+            super(conf);
+        }
+
+        protected Object statusOrError(String user, String id, Long maxStaleness,
+                                       TempletonStorage storage)
+        {
+            storage.getField(TempletonStorage.Type.JOB, id, "user");
+            return id;
+        }
+    }
+
+    @Test
+    public void testRunAllMoreIdsThanThreads() throws Exception {
+        new Main(null);         // Initialize the config
+        AppConfig conf = Main.getAppConfigInstance();
+        conf.set(TempletonStorage.STORAGE_CLASS, MockStorage.class.getName());
+        conf.setInt(StatusDelegator.THREADS_NAME, 2);
+
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i)
+            ids.add("job_201201010000_" + i);
+        List<Object> res = new StorageDelegator(conf).runAll("fred", ids, null);
+
+        assertEquals(ids, res);
+        assertFalse("a storage was shared between threads", MockStorage.shared.get());
+        assertTrue(MockStorage.opened.get() <= 2);
+        assertEquals(MockStorage.opened.get(), MockStorage.closed.get());
+    }
+}
@@ -36,6 +36,11 @@ public class MockExecService implements ExecService {
         return bean;
     }
 
+    public ExecBean run(String user, long maxWait, String program,
+                        List<String> args, Map<String, String> env) {
+        return run(program, args, env);
+    }
+
     @Override
     public ExecBean runUnlimited(String program,
                                  List<String> args, Map<String, String> env)
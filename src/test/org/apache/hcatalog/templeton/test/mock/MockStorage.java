@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hcatalog.templeton.tool.TempletonStorage;
+
+/**
+ * A storage with no fields that notices being used by two threads at
+ * once.
+ */
+public class MockStorage implements TempletonStorage {
+    public static final AtomicInteger opened = new AtomicInteger();
+    public static final AtomicInteger closed = new AtomicInteger();
+    public static final AtomicBoolean shared = new AtomicBoolean();
+
+    private AtomicBoolean busy = new AtomicBoolean();
+
+    public void startCleanup(Configuration config) {
+    }
+
+    public void saveField(Type type, String id, String key, String val) {
+    }
+
+    // Hold the storage for a moment, so that a second thread using it
+    // at the same time is likely to be seen.
+    public String getField(Type type, String id, String key) {
+        if (busy.getAndSet(true))
+            shared.set(true);
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        busy.set(false);
+        return null;
+    }
+
+    public Map<String, String> getFields(Type type, String id) {
+        return new HashMap<String, String>();
+    }
+
+    public boolean delete(Type type, String id) {
+        return true;
+    }
+
+    public List<String> getAll() {
+        return new ArrayList<String>();
+    }
+
+    public List<String> getAllForType(Type type) {
+        return new ArrayList<String>();
+    }
+
+    public List<String> getAllForKey(String key, String value) {
+        return new ArrayList<String>();
+    }
+
+    public List<String> getAllForTypeAndKey(Type type, String key, String value) {
+        return new ArrayList<String>();
+    }
+
+    public void addUserJob(String user, String id) {
+    }
+
+    public void removeUserJob(String user, String id) {
+    }
+
+    public List<String> getUserJobs(String user) {
+        return new ArrayList<String>();
+    }
+
+    public boolean watchFields(Type type, String id, List<String> keys,
+                               Runnable listener) {
+        return false;
+    }
+
+    public void openStorage(Configuration config) {
+        opened.incrementAndGet();
+    }
+
+    public void closeStorage() {
+        closed.incrementAndGet();
+    }
+}
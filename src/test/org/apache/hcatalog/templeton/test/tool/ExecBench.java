@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test.tool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hcatalog.templeton.tool.SpawnClient;
+import org.apache.hcatalog.templeton.tool.SpawnServer;
+
+/**
+ * Compare the latency of starting a program by forking this JVM, as
+ * ExecServiceImpl does, with starting it through a SpawnServer, as
+ * SpawnExecService does.  Run it with the heap size of the Templeton
+ * server to see the difference:
+ *
+ *   java -Xmx8g -cp templeton.jar:build/test/classes \
+ *       org.apache.hcatalog.templeton.test.tool.ExecBench \
+ *       [-n calls] [-t threads] [-h heap-mb] program [args...]
+ *
+ * The heap option fills that much of the heap first, since an unused
+ * heap costs little to fork.
+ */
+public class ExecBench {
+    private interface Spawner {
+        void run(String program, List<String> args) throws Exception;
+    }
+
+    public static void main(String[] argv)
+        throws Exception
+    {
+        int calls = 200;
+        int threads = 4;
+        int heapMb = 0;
+        int i = 0;
+        for (; i + 1 < argv.length && argv[i].startsWith("-"); i += 2) {
+            if (argv[i].equals("-n"))
+                calls = Integer.parseInt(argv[i + 1]);
+            else if (argv[i].equals("-t"))
+                threads = Integer.parseInt(argv[i + 1]);
+            else if (argv[i].equals("-h"))
+                heapMb = Integer.parseInt(argv[i + 1]);
+            else
+                usage();
+        }
+        if (i >= argv.length)
+            usage();
+        final String program = argv[i];
+        final List<String> args = Arrays.asList(argv).subList(i + 1, argv.length);
+
+        // Held until the end, so it stays live in the heap.
+        byte[][] ballast = new byte[heapMb][];
+        for (int mb = 0; mb < heapMb; ++mb) {
+            ballast[mb] = new byte[1024 * 1024];
+            Arrays.fill(ballast[mb], (byte) mb);
+        }
+
+        final Map<String, String> env = new HashMap<String, String>(System.getenv());
+        report("fork", bench(calls, threads, program, args, new Spawner() {
+                public void run(String program, List<String> args)
+                    throws Exception
+                {
+                    SpawnServer.exec(program, args, env, 0, 4096);
+                }
+            }));
+
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        cmd.add("-Xmx32m");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(SpawnServer.class.getName());
+        final SpawnClient client = new SpawnClient(cmd);
+        try {
+            report("spawn-server", bench(calls, threads, program, args, new Spawner() {
+                    public void run(String program, List<String> args)
+                        throws Exception
+                    {
+                        client.run(program, args, env, 0, 4096, "UTF-8");
+                    }
+                }));
+        } finally {
+            client.close();
+        }
+
+        System.out.println("ballast " + ballast.length + " mb");
+    }
+
+    private static void usage() {
+        System.err.println("usage: ExecBench [-n calls] [-t threads] [-h heap-mb]"
+                           + " program [args...]");
+        System.exit(1);
+    }
+
+    // Make the calls from several threads at once, after a few to warm
+    // up, and return the latency of each in milliseconds.
+    private static List<Double> bench(final int calls, int threads,
+                                      final String program, final List<String> args,
+                                      final Spawner spawner)
+        throws Exception
+    {
+        for (int w = 0; w < 5; ++w)
+            spawner.run(program, args);
+
+        final List<Double> times = Collections.synchronizedList(new ArrayList<Double>());
+        final Exception[] failure = new Exception[1];
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final int share = calls / threads + ((t < calls % threads) ? 1 : 0);
+            ts[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int c = 0; c < share; ++c) {
+                                long start = System.nanoTime();
+                                spawner.run(program, args);
+                                times.add((System.nanoTime() - start) / 1e6);
+                            }
+                        } catch (Exception e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                };
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        if (failure[0] != null)
+            throw failure[0];
+        return times;
+    }
+
+    private static void report(String name, List<Double> times) {
+        ArrayList<Double> sorted = new ArrayList<Double>(times);
+        Collections.sort(sorted);
+        double total = 0;
+        for (double t : sorted)
+            total += t;
+        System.out.println(String.format(
+            "%-12s calls=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+            name, sorted.size(), total / sorted.size(), pct(sorted, 50),
+            pct(sorted, 99), sorted.get(sorted.size() - 1)));
+    }
+
+    private static double pct(List<Double> sorted, int p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, i));
+    }
+}
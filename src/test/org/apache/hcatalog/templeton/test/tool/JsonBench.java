@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test.tool;
+
+import java.util.Map;
+import org.apache.hcatalog.templeton.JsonBuilder;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Compare the time to add keys to an hcat json result by parsing it
+ * into a map and writing it out again, as JsonBuilder used to, with
+ * splicing the keys into the text, as it does now:
+ *
+ *   java -cp templeton.jar:build/test/classes:jackson jars \
+ *       org.apache.hcatalog.templeton.test.tool.JsonBench [partitions] [seconds]
+ *
+ * The result is a "show partitions" of the given size.  Each way is
+ * warmed up and then run for the given time.
+ */
+public class JsonBench {
+    private interface Way {
+        String run(String json) throws Exception;
+    }
+
+    public static void main(String[] argv)
+        throws Exception
+    {
+        int partitions = (argv.length > 0) ? Integer.parseInt(argv[0]) : 1000;
+        int seconds = (argv.length > 1) ? Integer.parseInt(argv[1]) : 5;
+        String json = partitions(partitions);
+        System.out.println("input " + json.length() + " chars");
+
+        report("map round trip", json, seconds, new Way() {
+                public String run(String json) throws Exception {
+                    // A new mapper for each step, as before.
+                    Map m = new ObjectMapper().readValue(json, Map.class);
+                    m.put("database", "default");
+                    m.put("table", "t");
+                    return new ObjectMapper().writeValueAsString(m);
+                }
+            });
+        report("shared map", json, seconds, new Way() {
+                public String run(String json) throws Exception {
+                    Map m = JsonBuilder.jsonToMap(json);
+                    m.put("database", "default");
+                    m.put("table", "t");
+                    return JsonBuilder.mapToJson(m);
+                }
+            });
+        report("splice", json, seconds, new Way() {
+                public String run(String json) throws Exception {
+                    return JsonBuilder.create(json)
+                        .put("database", "default")
+                        .put("table", "t")
+                        .buildJson();
+                }
+            });
+    }
+
+    private static String partitions(int n) {
+        StringBuilder sb = new StringBuilder("{\"partitions\":[");
+        for (int i = 0; i < n; ++i) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"name\":\"ds='2012-01-").append(i)
+                .append("'\",\"values\":[{\"columnName\":\"ds\",\"columnValue\":\"2012-01-")
+                .append(i).append("\"}]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void report(String name, String json, int seconds, Way way)
+        throws Exception
+    {
+        long sink = 0;
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end)
+            sink += way.run(json).length();
+
+        long calls = 0;
+        long start = System.nanoTime();
+        end = System.currentTimeMillis() + seconds * 1000L;
+        while (System.currentTimeMillis() < end) {
+            sink += way.run(json).length();
+            ++calls;
+        }
+        double us = (System.nanoTime() - start) / 1e3 / calls;
+        System.out.println(String.format("%-16s %10.1f us/call  (%d)", name, us, sink % 10));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hcatalog.templeton.test.tool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.hcatalog.templeton.ExecBean;
+import org.apache.hcatalog.templeton.tool.SpawnClient;
+import org.apache.hcatalog.templeton.tool.SpawnServer;
+import org.junit.Test;
+
+public class SpawnClientTest {
+    private static SpawnClient client() {
+        ArrayList<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(SpawnServer.class.getName());
+        return new SpawnClient(cmd);
+    }
+
+    private static List<String> sh(String script) {
+        return Arrays.asList("-c", script);
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        SpawnClient client = client();
+        try {
+            HashMap<String, String> env = new HashMap<String, String>();
+            env.put("FOO", "bar");
+            ExecBean res = client.run("/bin/sh", sh("echo $FOO; echo err >&2; exit 3"),
+                                      env, 0, 100, "UTF-8");
+            assertEquals("bar\n", res.stdout);
+            assertEquals("err\n", res.stderr);
+            assertEquals(3, res.exitcode);
+
+            res = client.run("/bin/sh", sh("echo 0123456789"), env, 0, 4, "UTF-8");
+            assertEquals("0123", res.stdout);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        SpawnClient client = client();
+        try {
+            ExecBean res = client.run("/bin/sleep", Arrays.asList("10"),
+                                      new HashMap<String, String>(), 200, 100, "UTF-8");
+            assertTrue(res.exitcode != 0);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMissingProgram() throws Exception {
+        SpawnClient client = client();
+        try {
+            client.run("/no/such/program", null, new HashMap<String, String>(),
+                       0, 100, "UTF-8");
+            fail("Missing program ran");
+        } catch (IOException e) {
+            assertFalse(e instanceof SpawnClient.LostException);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        SpawnClient client = client();
+        try {
+            client.run("/bin/echo", null, new HashMap<String, String>(), 0, 100, "UTF-8");
+            client.close();
+            ExecBean res = client.run("/bin/echo", Arrays.asList("again"),
+                                      new HashMap<String, String>(), 0, 100, "UTF-8");
+            assertEquals("again\n", res.stdout);
+            assertEquals(2L, client.stats().get("started"));
+        } finally {
+            client.close();
+        }
+    }
+}